@@ -0,0 +1,246 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Non-blocking TCP server speaking a fixed-size binary move protocol, for clients where the
+ * HTTP framing of {@link Server} costs more than the prediction itself. Requests may be
+ * pipelined freely on a connection; responses come back in request order. It can run on its
+ * own or beside the HTTP endpoint in a {@link Server} (-Drps.binaryPort=N), sharing its engine
+ * reference, so it follows every rebuild, and its CountReplica, so its moves are replicated.
+ *
+ * Request (16 bytes, big-endian):
+ *   long  session id
+ *   byte  number of history moves (0-5)
+ *   byte  player's move (e.g. 'R', 'P', or 'S')
+ *   short player history, base k in move set order (R=0, P=1, S=2 for RPS), oldest move most significant
+ *   short computer history, same encoding
+ *   short reserved
+ *
+ * Response (12 bytes, big-endian):
+ *   long  session id
+ *   byte  computer's move
+ *   byte  winner ('H', 'C', or 'D')
+ *   short reserved
+ */
+public class BinaryServer
+{
+	static final int REQUEST_SIZE = 16;
+	static final int RESPONSE_SIZE = 12;
+	static final int MAX_HISTORY = GameState.CAPACITY;
+	static final int BUFFER_REQUESTS = 1024;	/** Requests (and responses) buffered per connection */
+
+	private final AtomicReference<PredictionEngine> current;	/** Engine serving predictions, read once per request */
+	private final CountReplica replica;	/** Receives every move played, or null */
+	private final Worker[] workers;
+
+	/**
+	 * @param  current	- reference to the engine serving predictions, which may be swapped at any time
+	 * @param  replica	- replica to record every move into, or null
+	 * @param  threads	- number of selector threads
+	 */
+	public BinaryServer(AtomicReference<PredictionEngine> current, CountReplica replica, int threads) throws IOException
+	{
+		this.current = current;
+		this.replica = replica;
+		workers = new Worker[threads];
+		for (int i = 0; i < threads; i++)
+		{
+			workers[i] = new Worker();
+		}
+	}
+
+	/**
+	 * Binds the port, then starts the selector threads and an accepting thread that hands
+	 * connections out to the selectors round-robin
+	 * @param  port	- port to listen on
+	 */
+	public void start(int port) throws IOException
+	{
+		ServerSocketChannel server = ServerSocketChannel.open();
+		server.bind(new InetSocketAddress(port));
+
+		for (int i = 0; i < workers.length; i++)
+		{
+			Thread t = new Thread(workers[i], "binary-server-" + i);
+			t.setDaemon(true);
+			t.start();
+		}
+		new Thread(() -> accept(server), "binary-accept").start();
+		System.out.println("The binary server is running on port " + port);
+	}
+
+	private void accept(ServerSocketChannel server)
+	{
+		int next = 0;
+		while (true)
+		{
+			try {
+				SocketChannel channel = server.accept();
+				channel.socket().setTcpNoDelay(true);
+				channel.configureBlocking(false);
+				workers[next].register(channel);
+				next = (next + 1) % workers.length;
+			}
+			catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Answers one request from the input buffer into the output buffer
+	 */
+	private void handle(ByteBuffer in, ByteBuffer out)
+	{
+		long session = in.getLong();
+		int length = Math.max(0, Math.min(in.get(), MAX_HISTORY));
+		char playerMove = (char)in.get();
+		int playerCode = in.getShort() & 0xFFFF;
+		int computerCode = in.getShort() & 0xFFFF;
+		in.getShort();
+
+		PredictionEngine engine = current.get();
+		GameState state = GameState.fromCodes(engine.moves, length, playerCode, computerCode);
+		char compMove = engine.determineOptimalMove(state, playerMove);
+		char winner = engine.determineWinner(playerMove, compMove);
+		if (replica != null)
+		{
+			replica.record(state, playerMove);
+		}
+
+		out.putLong(session);
+		out.put((byte)compMove);
+		out.put((byte)winner);
+		out.putShort((short)0);
+	}
+
+	/**
+	 * A selector thread owning a set of connections
+	 */
+	private class Worker implements Runnable
+	{
+		private final Selector selector;
+		private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<SocketChannel>();
+
+		Worker() throws IOException
+		{
+			selector = Selector.open();
+		}
+
+		void register(SocketChannel channel)
+		{
+			pending.add(channel);
+			selector.wakeup();
+		}
+
+		public void run()
+		{
+			while (true)
+			{
+				try {
+					selector.select();
+					SocketChannel channel;
+					while ((channel = pending.poll()) != null)
+					{
+						channel.register(selector, SelectionKey.OP_READ, new Connection());
+					}
+
+					Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+					while (keys.hasNext())
+					{
+						SelectionKey key = keys.next();
+						keys.remove();
+						try {
+							service(key);
+						}
+						catch (IOException e) {
+							close(key);
+						}
+					}
+				}
+				catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+
+		/**
+		 * Reads whatever has arrived, answers every complete request that fits in the
+		 * output buffer and writes the responses straight from the direct buffer
+		 */
+		private void service(SelectionKey key) throws IOException
+		{
+			SocketChannel channel = (SocketChannel)key.channel();
+			Connection conn = (Connection)key.attachment();
+
+			if (key.isReadable() && channel.read(conn.in) < 0)
+			{
+				close(key);
+				return;
+			}
+
+			do
+			{
+				conn.in.flip();
+				while (conn.in.remaining() >= REQUEST_SIZE && conn.out.remaining() >= RESPONSE_SIZE)
+				{
+					handle(conn.in, conn.out);
+				}
+				conn.in.compact();
+
+				conn.out.flip();
+				channel.write(conn.out);
+				conn.out.compact();
+			} while (conn.out.position() == 0 && conn.in.position() >= REQUEST_SIZE);
+
+			// stop reading while responses are backed up, so a slow reader cannot grow the buffers
+			if (conn.out.position() > 0)
+			{
+				key.interestOps(SelectionKey.OP_WRITE);
+			}
+			else
+			{
+				key.interestOps(SelectionKey.OP_READ);
+			}
+		}
+
+		private void close(SelectionKey key)
+		{
+			key.cancel();
+			try {
+				key.channel().close();
+			}
+			catch (IOException e) {
+				// already closed
+			}
+		}
+	}
+
+	/**
+	 * Per-connection direct buffers
+	 */
+	private static class Connection
+	{
+		final ByteBuffer in = ByteBuffer.allocateDirect(REQUEST_SIZE * BUFFER_REQUESTS);
+		final ByteBuffer out = ByteBuffer.allocateDirect(RESPONSE_SIZE * BUFFER_REQUESTS);
+	}
+
+	/**
+	 * Usage: java BinaryServer [port] [selector threads]
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 3233;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+		new BinaryServer(new AtomicReference<PredictionEngine>(PredictionEngine.warmStart()), null, threads).start(port);
+	}
+}
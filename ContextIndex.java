@@ -0,0 +1,102 @@
+/**
+ * Index over the game data that answers, in one pass over every context length of a game
+ * state, what Full Bayes, Adapted Nearest Neighbor, and Context Mixture need to know
+ */
+public interface ContextIndex
+{
+	/**
+	 * Weight of a context of the given depth with the given (smoothed) sample count in the
+	 * mixture: longer contexts are more specific, and are trusted in proportion to how much
+	 * data backs them. A context with MIX_ESCAPE samples gets half of its full weight
+	 */
+	static final double MIX_ESCAPE = 5;
+
+	/**
+	 * Walks every context length of the state
+	 * @param  state	- current (rolling) game state
+	 * @return the exact match, longest matching suffix and mixture for the state
+	 */
+	Lookup lookup(GameState state);
+
+	/**
+	 * @return approximate bytes the index occupies on the heap
+	 */
+	long sizeInBytes();
+
+	/**
+	 * Everything one walk of an index learns about a game state
+	 */
+	public static class Lookup
+	{
+		boolean hasExact;	/** Whether the full state is in the data */
+		final double[] exact;	/** Per-move counts for the full state */
+		boolean hasDeepest;	/** Whether any suffix of the state (even the empty one) is in the data */
+		final double[] deepest;	/** Per-move counts for the longest matching suffix */
+		int deepestLength;	/** Number of rounds in that suffix */
+		final double[] mixture;	/** Unnormalized blend of the move distributions over all context lengths */
+		final double[] context;	/** Scratch the index fills with a context's per-move counts before add() */
+
+		/**
+		 * @param  k	- number of moves in the game
+		 */
+		Lookup(int k)
+		{
+			exact = new double[k];
+			deepest = new double[k];
+			mixture = new double[k];
+			context = new double[k];
+		}
+
+		/**
+		 * Folds the counts held in context into the lookup; contexts must come shortest first
+		 * @param  depth	- number of rounds in the context
+		 * @param  length	- number of rounds in the full state
+		 */
+		void add(int depth, int length)
+		{
+			int k = context.length;
+			double total = 0;
+			for (int move = 0; move < k; move++)
+			{
+				total += context[move];
+			}
+			if (total <= 0)
+			{
+				return;
+			}
+
+			double weight = (1 << depth) / (total + MIX_ESCAPE);
+			hasDeepest = true;
+			deepestLength = depth;
+			for (int move = 0; move < k; move++)
+			{
+				mixture[move] += weight * context[move];
+				deepest[move] = context[move];
+			}
+			if (depth == length)
+			{
+				hasExact = true;
+				for (int move = 0; move < k; move++)
+				{
+					exact[move] = context[move];
+				}
+			}
+		}
+
+		/**
+		 * @return index of the move the mixture rates most likely (later moves win ties)
+		 */
+		public int mixtureMove()
+		{
+			int best = 0;
+			for (int move = 1; move < mixture.length; move++)
+			{
+				if (mixture[move] >= mixture[best])
+				{
+					best = move;
+				}
+			}
+			return best;
+		}
+	}
+}
@@ -0,0 +1,153 @@
+import java.util.*;
+
+/**
+ * Suffix-indexed view of the game data: a trie keyed by round (player move, computer move),
+ * walked from the latest round backwards, where the node at depth k holds the counts of the
+ * sub-game made of the last k rounds. A single walk down the tree therefore visits every
+ * context length 0..N of a game state, which gives the exact (Full Bayes) match, the longest
+ * matching suffix (Adapted Nearest Neighbor) and a blend over all lengths in one pass.
+ *
+ * The nodes share their count arrays with the data table, so in-place count updates are
+ * seen here without rebuilding.
+ */
+public class ContextTree implements ContextIndex
+{
+	//================================================================================
+	// Fields
+	//================================================================================
+
+	private final MoveSet moves;	/** Move alphabet of the game, k moves giving k*k children per node */
+	private final Node root;
+	private int nodes = 1;	/** Number of nodes, for sizeInBytes() */
+	private int states;	/** Number of game states indexed, for sizeInBytes() */
+
+
+	//================================================================================
+	// Constructors
+	//================================================================================
+
+	/**
+	 * Indexes every game state of a data table
+	 * @param  data	- map from concatenated player and computer histories to per-move counts
+	 * @param  moves	- move alphabet of the game
+	 */
+	public ContextTree(Map<String, int[]> data, MoveSet moves)
+	{
+		this.moves = moves;
+		root = new Node(moves.size());
+		for (Map.Entry<String, int[]> entry : data.entrySet())
+		{
+			String key = entry.getKey();
+			int length = key.length() / 2;
+			Node node = root;
+
+			// the "0" "0" state is the empty game, held at the root
+			if (!key.startsWith("0"))
+			{
+				for (int back = 0; back < length; back++)
+				{
+					int round = round(key.charAt(length - 1 - back), key.charAt(2 * length - 1 - back));
+					if (node.children[round] == null)
+					{
+						node.children[round] = new Node(moves.size());
+						nodes++;
+					}
+					node = node.children[round];
+				}
+			}
+			node.counts = entry.getValue();
+			states++;
+		}
+	}
+
+
+	//================================================================================
+	// Functions
+	//================================================================================
+
+	/**
+	 * Walks the tree once along the state's rounds, latest first
+	 * @param  state	- current (rolling) game state
+	 * @return the exact match, longest matching suffix and mixture for the state
+	 */
+	public Lookup lookup(GameState state)
+	{
+		int k = moves.size();
+		Lookup lookup = new Lookup(k);
+		int length = state.length();
+		Node node = root;
+		int depth = 0;
+
+		while (true)
+		{
+			if (node.counts != null)
+			{
+				for (int move = 0; move < k; move++)
+				{
+					lookup.context[move] = node.counts[move];
+				}
+				lookup.add(depth, length);
+			}
+
+			if (depth == length)
+			{
+				break;
+			}
+			int round = round(state.playerMove(depth), state.computerMove(depth));
+			Node child = round < 0 ? null : node.children[round];
+			if (child == null)
+			{
+				break;
+			}
+			node = child;
+			depth++;
+		}
+
+		return lookup;
+	}
+
+	/**
+	 * Estimates the footprint assuming compressed references: a 16-byte node header plus a
+	 * k*k-slot child array each, and one int[k] per state (shared with the data table)
+	 */
+	public long sizeInBytes()
+	{
+		long k = moves.size();
+		return nodes * (16L + align(16 + 4 * k * k)) + states * align(16 + 4 * k);
+	}
+
+	private static long align(long bytes)
+	{
+		return (bytes + 7) / 8 * 8;
+	}
+
+	/**
+	 * @return index (0 to k*k-1) of a round among the children of a node, or -1 if either move is not in the move set
+	 */
+	private int round(char playerMove, char compMove)
+	{
+		int player = moves.index(playerMove);
+		int computer = moves.index(compMove);
+		if (player < 0 || computer < 0)
+		{
+			return -1;
+		}
+		return moves.size() * player + computer;
+	}
+
+
+	//================================================================================
+	// Inner-classes
+	//================================================================================
+
+	private static class Node
+	{
+		int[] counts;	/** Per-move counts of the sub-game ending here, or null if it is not in the data */
+		final Node[] children;
+
+		Node(int k)
+		{
+			children = new Node[k * k];
+		}
+	}
+}
@@ -0,0 +1,566 @@
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Grow-only counter (G-counter CRDT) replica of the move counts learned from live traffic, for
+ * running several Server processes that each see part of the traffic. Every node owns one row
+ * of counters per game state, which only it increments, and periodically ships the counters
+ * that changed, as absolute values, to each of its peers over TCP. A receiver keeps the latest
+ * row of every node and merges by element-wise max, so syncs may be repeated, reordered, or
+ * lost to a reconnect and every node still converges on the same totals: the sum of all rows.
+ * On (re)connecting to a peer a node sends every row it knows, so a restarted node catches up;
+ * its row is keyed by node id and start time, so new counters never hide behind its old row.
+ *
+ * Recording a move is lock-free. All merging, and every change to the engine's counts, happens
+ * on a single applier thread, so predictions keep reading the counts without locking. Moves of
+ * game states that are not in the engine's data wait in pending until the engine is rebuilt
+ * (see RetrainScheduler).
+ *
+ * Between reconnects each node only ships its own row, so every node should list every other
+ * node as a peer.
+ */
+public class CountReplica
+{
+	//================================================================================
+	// Fields
+	//================================================================================
+
+	static final int MAGIC = 0x52504331;	/** "RPC1", opens every replication connection */
+	static final long SYNC_MS = Long.getLong("rps.syncMs", 1000);	/** Period between syncs to the peers */
+	static final int CONNECT_TIMEOUT_MS = 1000;	/** Give up on an unreachable peer until the next sync after this long */
+
+	final int nodeId;	/** Identifies this node's row; unique among the peers */
+	final long incarnation = System.currentTimeMillis();	/** Start time, telling this run's row apart from earlier runs' */
+	private PredictionEngine engine;	/** Engine the merged counts are applied to (applier thread only once started) */
+	private final MoveSet moves;
+	private final int replicationPort;	/** Port the peers ship their rows to */
+	private final List<InetSocketAddress> peers;
+
+	/** This node's own row: moves observed locally, per game state key */
+	private final ConcurrentHashMap<String, AtomicLongArray> local = new ConcurrentHashMap<String, AtomicLongArray>();
+	/** Keys of local whose counters changed since the last sync */
+	private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+	/** Open connection to each peer, or null to (re)connect and send the whole row (sync thread only) */
+	private final DataOutputStream[] connections;
+
+	/** Latest known row of every node and incarnation, this one included (applier thread only) */
+	private final HashMap<String, Row> rows = new HashMap<String, Row>();
+	/** Sum of all rows, per game state key (applier thread only) */
+	private final HashMap<String, long[]> totals = new HashMap<String, long[]>();
+	/** Merged moves of game states missing from the engine's data (applier thread only) */
+	private final HashMap<String, long[]> pending = new HashMap<String, long[]>();
+
+	private final ExecutorService applier = Executors.newSingleThreadExecutor(daemon("count-applier"));
+	private final ScheduledExecutorService syncer = Executors.newSingleThreadScheduledExecutor(daemon("count-sync"));
+
+	// metrics, readable from any thread
+	final AtomicLong localMoves = new AtomicLong();	/** Moves recorded on this node */
+	final AtomicLong mergedMoves = new AtomicLong();	/** Moves merged from every row, this node's included */
+	final AtomicLong syncs = new AtomicLong();	/** Syncs that shipped at least one counter */
+	final AtomicLong lastSyncBytes = new AtomicLong();	/** Bytes of the last sync, per peer */
+	final AtomicLong bytesSent = new AtomicLong();
+	final AtomicLong bytesReceived = new AtomicLong();
+	final AtomicLong batchesReceived = new AtomicLong();
+	final AtomicLong lastLagMs = new AtomicLong();	/** Time from a peer shipping its last batch to it being applied here */
+	final AtomicLong maxLagMs = new AtomicLong();
+	volatile int pendingStates;	/** Game states waiting for a rebuild */
+	volatile int knownRows;	/** Rows merged so far, one per node and incarnation */
+
+
+	//================================================================================
+	// Constructors
+	//================================================================================
+
+	/**
+	 * Creates a replica; nothing is sent or received until {@link #start()}
+	 * @param  engine	- engine the merged counts are applied to
+	 * @param  nodeId	- identifier of this node, unique among the peers
+	 * @param  replicationPort	- port to receive the peers' rows on
+	 * @param  peers	- replication addresses of every other node
+	 */
+	public CountReplica(PredictionEngine engine, int nodeId, int replicationPort, List<InetSocketAddress> peers)
+	{
+		this.engine = engine;
+		this.moves = engine.moves;
+		this.nodeId = nodeId;
+		this.replicationPort = replicationPort;
+		this.peers = peers;
+		connections = new DataOutputStream[peers.size()];
+	}
+
+
+	//================================================================================
+	// Functions
+	//================================================================================
+
+	/**
+	 * Parses a peer list such as "4002,4003" or "host:4002,host:4003" (a bare port means localhost)
+	 * @param  list	- comma separated peer addresses
+	 * @return the peers' replication addresses
+	 */
+	public static List<InetSocketAddress> parsePeers(String list)
+	{
+		List<InetSocketAddress> peers = new ArrayList<InetSocketAddress>();
+		for (String peer : list.split(","))
+		{
+			peer = peer.trim();
+			if (peer.isEmpty())
+			{
+				continue;
+			}
+			int colon = peer.lastIndexOf(':');
+			String host = colon < 0 ? "localhost" : peer.substring(0, colon);
+			peers.add(new InetSocketAddress(host, Integer.parseInt(peer.substring(colon + 1))));
+		}
+		return peers;
+	}
+
+	/**
+	 * Starts receiving the peers' rows and shipping this node's row every SYNC_MS
+	 */
+	public void start() throws IOException
+	{
+		ServerSocket listener = new ServerSocket(replicationPort);
+		Thread acceptor = new Thread(() -> accept(listener), "count-replication");
+		acceptor.setDaemon(true);
+		acceptor.start();
+
+		syncer.scheduleWithFixedDelay(this::sync, SYNC_MS, SYNC_MS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Counts one move a player made, if the game so far fits in the state window (the data only
+	 * holds games from their first move)
+	 * @param  state	- game state the move was made in
+	 * @param  playerMove	- character of the move the player made
+	 */
+	public void record(GameState state, char playerMove)
+	{
+		int move = moves.index(playerMove);
+		if (move < 0 || state.moves() > GameState.CAPACITY)
+		{
+			return;
+		}
+
+		String key = state.key(state.length());
+		AtomicLongArray row = local.get(key);
+		if (row == null)
+		{
+			row = local.computeIfAbsent(key, k -> new AtomicLongArray(moves.size()));
+		}
+		row.incrementAndGet(move);
+		dirty.add(key);
+		localMoves.incrementAndGet();
+	}
+
+	/**
+	 * Runs a task on the applier thread, after every batch queued before it
+	 * @param  task	- task that may call {@link #totals()} or {@link #rebase}
+	 */
+	public void execute(Runnable task)
+	{
+		applier.execute(task);
+	}
+
+	/**
+	 * Copies the merged counts; must run on the applier thread
+	 * @return number of observations of each move, per game state key, summed over every row
+	 */
+	HashMap<String, long[]> totals()
+	{
+		HashMap<String, long[]> copy = new HashMap<String, long[]>(totals.size() * 4 / 3 + 1);
+		for (Map.Entry<String, long[]> entry : totals.entrySet())
+		{
+			copy.put(entry.getKey(), entry.getValue().clone());
+		}
+		return copy;
+	}
+
+	/**
+	 * Switches to a rebuilt engine, applying whatever was merged since its counts were taken;
+	 * must run on the applier thread
+	 * @param  next	- engine built with the counts of baseline
+	 * @param  baseline	- result of {@link #totals()} the engine was built with
+	 */
+	void rebase(PredictionEngine next, Map<String, long[]> baseline)
+	{
+		engine = next;
+		pending.clear();
+		int k = moves.size();
+		for (Map.Entry<String, long[]> entry : totals.entrySet())
+		{
+			long[] built = baseline.get(entry.getKey());
+			long[] counts = entry.getValue();
+			long[] delta = new long[k];
+			long grown = 0;
+			for (int move = 0; move < k; move++)
+			{
+				delta[move] = counts[move] - (built == null ? 0 : built[move]);
+				grown += delta[move];
+			}
+			if (grown > 0)
+			{
+				apply(entry.getKey(), delta);
+			}
+		}
+		pendingStates = pending.size();
+		engine.updatePrior();
+	}
+
+	/**
+	 * @return the replication metrics, one "name value" pair per line
+	 */
+	public String metrics()
+	{
+		StringBuilder out = new StringBuilder();
+		out.append("replica_node ").append(nodeId).append('\n');
+		out.append("replica_peers ").append(peers.size()).append('\n');
+		out.append("replica_rows ").append(knownRows).append('\n');
+		out.append("replica_local_moves ").append(localMoves.get()).append('\n');
+		out.append("replica_merged_moves ").append(mergedMoves.get()).append('\n');
+		out.append("replica_pending_states ").append(pendingStates).append('\n');
+		out.append("replica_syncs ").append(syncs.get()).append('\n');
+		out.append("replica_last_sync_bytes ").append(lastSyncBytes.get()).append('\n');
+		out.append("replica_bytes_sent ").append(bytesSent.get()).append('\n');
+		out.append("replica_bytes_received ").append(bytesReceived.get()).append('\n');
+		out.append("replica_batches_received ").append(batchesReceived.get()).append('\n');
+		out.append("replica_last_lag_ms ").append(lastLagMs.get()).append('\n');
+		out.append("replica_max_lag_ms ").append(maxLagMs.get()).append('\n');
+		return out.toString();
+	}
+
+	/**
+	 * Ships the counters that changed since the last sync to every peer, and queues them for
+	 * this node's own row; runs on the sync thread
+	 */
+	private void sync()
+	{
+		// clear each key before reading its counters, so an increment racing with the read is shipped next time
+		HashMap<String, long[]> batch = new HashMap<String, long[]>();
+		for (Iterator<String> it = dirty.iterator(); it.hasNext(); )
+		{
+			String key = it.next();
+			it.remove();
+			batch.put(key, snapshot(local.get(key)));
+		}
+
+		if (!batch.isEmpty())
+		{
+			HashMap<String, long[]> own = batch;
+			applier.execute(() -> merge(nodeId, incarnation, own, -1));
+		}
+
+		// an empty frame still goes out, as a heartbeat that notices a peer went away
+		byte[] frame = encode(nodeId, incarnation, batch);
+		for (int i = 0; i < peers.size(); i++)
+		{
+			try {
+				if (connections[i] == null)
+				{
+					// a new connection gets every known row, which already includes this batch
+					connections[i] = connect(peers.get(i));
+					for (byte[] row : applier.submit(this::encodeRows).get())
+					{
+						send(i, row);
+					}
+				}
+				else
+				{
+					send(i, frame);
+				}
+			}
+			catch (IOException | ExecutionException e) {
+				// every row is resent once the peer is back
+				close(i);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+
+		if (!batch.isEmpty())
+		{
+			syncs.incrementAndGet();
+			lastSyncBytes.set(frame.length);
+		}
+	}
+
+	private DataOutputStream connect(InetSocketAddress peer) throws IOException
+	{
+		Socket socket = new Socket();
+		socket.connect(peer, CONNECT_TIMEOUT_MS);
+		socket.setTcpNoDelay(true);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		out.writeInt(MAGIC);
+		out.writeUTF(moves.symbols());
+		return out;
+	}
+
+	private void send(int peer, byte[] frame) throws IOException
+	{
+		connections[peer].write(frame);
+		connections[peer].flush();
+		bytesSent.addAndGet(frame.length);
+	}
+
+	private void close(int peer)
+	{
+		if (connections[peer] != null)
+		{
+			try {
+				connections[peer].close();
+			}
+			catch (IOException e) {
+				// already broken
+			}
+			connections[peer] = null;
+		}
+	}
+
+	/**
+	 * @return one frame per known row; runs on the applier thread
+	 */
+	private List<byte[]> encodeRows()
+	{
+		List<byte[]> frames = new ArrayList<byte[]>();
+		for (Row row : rows.values())
+		{
+			frames.add(encode(row.node, row.incarnation, row.counts));
+		}
+		return frames;
+	}
+
+	private long[] snapshot(AtomicLongArray counters)
+	{
+		long[] counts = new long[counters.length()];
+		for (int move = 0; move < counts.length; move++)
+		{
+			counts[move] = counters.get(move);
+		}
+		return counts;
+	}
+
+	/**
+	 * Frame: int node id, long incarnation, long send time (ms), int number of states, then per
+	 * state the UTF key and one long per move
+	 */
+	private byte[] encode(int node, long rowIncarnation, HashMap<String, long[]> batch)
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeInt(node);
+			out.writeLong(rowIncarnation);
+			out.writeLong(System.currentTimeMillis());
+			out.writeInt(batch.size());
+			for (Map.Entry<String, long[]> entry : batch.entrySet())
+			{
+				out.writeUTF(entry.getKey());
+				for (long count : entry.getValue())
+				{
+					out.writeLong(count);
+				}
+			}
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	private void accept(ServerSocket listener)
+	{
+		while (true)
+		{
+			try {
+				Socket socket = listener.accept();
+				Thread reader = new Thread(() -> receive(socket), "count-replication-" + socket.getRemoteSocketAddress());
+				reader.setDaemon(true);
+				reader.start();
+			}
+			catch (IOException e) {
+				System.err.println("Count replication listener failed: " + e.getMessage());
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Reads a peer's frames until it disconnects, queueing each for the applier thread
+	 */
+	private void receive(Socket socket)
+	{
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			if (in.readInt() != MAGIC || !in.readUTF().equals(moves.symbols()))
+			{
+				System.err.println("Rejected count replication from " + socket.getRemoteSocketAddress());
+				return;
+			}
+
+			int k = moves.size();
+			while (true)
+			{
+				int node = in.readInt();
+				long rowIncarnation = in.readLong();
+				long sentAt = in.readLong();
+				int states = in.readInt();
+				long bytes = 24;
+				HashMap<String, long[]> batch = new HashMap<String, long[]>(states * 4 / 3 + 1);
+				for (int i = 0; i < states; i++)
+				{
+					String key = in.readUTF();
+					long[] counts = new long[k];
+					for (int move = 0; move < k; move++)
+					{
+						counts[move] = in.readLong();
+					}
+					batch.put(key, counts);
+					bytes += 2 + key.length() + 8L * k;
+				}
+				bytesReceived.addAndGet(bytes);
+				batchesReceived.incrementAndGet();
+
+				applier.execute(() -> merge(node, rowIncarnation, batch, sentAt));
+			}
+		}
+		catch (IOException e) {
+			// peer went away; it resends its whole row when it reconnects
+		}
+		finally {
+			try {
+				socket.close();
+			}
+			catch (IOException e) {
+				// nothing left to do
+			}
+		}
+	}
+
+	/**
+	 * Max-merges a batch of one node's counters into its known row, and applies whatever grew
+	 * to the engine; runs on the applier thread
+	 * @param  node	- node the counters belong to
+	 * @param  rowIncarnation	- start time of the node's run that counted them
+	 * @param  batch	- absolute counters, per game state key
+	 * @param  sentAt	- time the batch was shipped, or -1 for this node's own row
+	 */
+	private void merge(int node, long rowIncarnation, HashMap<String, long[]> batch, long sentAt)
+	{
+		String id = node + "@" + rowIncarnation;
+		Row row = rows.get(id);
+		if (row == null)
+		{
+			row = new Row(node, rowIncarnation);
+			rows.put(id, row);
+			knownRows = rows.size();
+		}
+
+		int k = moves.size();
+		boolean changed = false;
+		for (Map.Entry<String, long[]> entry : batch.entrySet())
+		{
+			long[] known = row.counts.get(entry.getKey());
+			if (known == null)
+			{
+				known = new long[k];
+				row.counts.put(entry.getKey(), known);
+			}
+
+			long[] counts = entry.getValue();
+			long[] delta = new long[k];
+			long grown = 0;
+			for (int move = 0; move < k; move++)
+			{
+				if (counts[move] > known[move])
+				{
+					delta[move] = counts[move] - known[move];
+					known[move] = counts[move];
+					grown += delta[move];
+				}
+			}
+
+			if (grown > 0)
+			{
+				long[] total = totals.get(entry.getKey());
+				if (total == null)
+				{
+					total = new long[k];
+					totals.put(entry.getKey(), total);
+				}
+				for (int move = 0; move < k; move++)
+				{
+					total[move] += delta[move];
+				}
+				apply(entry.getKey(), delta);
+				mergedMoves.addAndGet(grown);
+				changed = true;
+			}
+		}
+
+		if (changed)
+		{
+			engine.updatePrior();
+		}
+		if (sentAt >= 0)
+		{
+			long lag = Math.max(0, System.currentTimeMillis() - sentAt);
+			lastLagMs.set(lag);
+			maxLagMs.accumulateAndGet(lag, Math::max);
+		}
+	}
+
+	private void apply(String key, long[] delta)
+	{
+		if (engine.addCounts(key, delta))
+		{
+			return;
+		}
+
+		long[] waiting = pending.get(key);
+		if (waiting == null)
+		{
+			waiting = new long[delta.length];
+			pending.put(key, waiting);
+			pendingStates = pending.size();
+		}
+		for (int move = 0; move < delta.length; move++)
+		{
+			waiting[move] += delta[move];
+		}
+	}
+
+	private static ThreadFactory daemon(String name)
+	{
+		return r -> {
+			Thread t = new Thread(r, name);
+			t.setDaemon(true);
+			return t;
+		};
+	}
+
+
+	//================================================================================
+	// Inner-classes
+	//================================================================================
+
+	/**
+	 * Latest known counters of one run of one node
+	 */
+	private static class Row
+	{
+		final int node;
+		final long incarnation;
+		final HashMap<String, long[]> counts = new HashMap<String, long[]>();
+
+		Row(int node, long incarnation)
+		{
+			this.node = node;
+			this.incarnation = incarnation;
+		}
+	}
+}
@@ -0,0 +1,64 @@
+import java.io.File;
+import java.util.*;
+
+/**
+ * Measures ensemble prediction throughput (determineOptimalMove on a rolling game state)
+ */
+public class EngineBenchmark
+{
+	static final int STATES = 4096;	/** Distinct random game states cycled through when timing */
+
+	/**
+	 * Usage: java EngineBenchmark [iterations [data-file moves]]
+	 * e.g. java EngineBenchmark 2000000 data/rpslk.txt RPSLK
+	 */
+	public static void main(String[] args)
+	{
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+
+		PredictionEngine engine = args.length > 2
+				? new PredictionEngine(new File(args[1]), MoveSet.named(args[2]))
+				: new PredictionEngine();
+		report(engine, iterations);
+	}
+
+	static void report(PredictionEngine engine, int iterations)
+	{
+		Random random = new Random(42);
+		GameState[] states = new GameState[STATES];
+		char[] playerMoves = new char[STATES];
+		String symbols = engine.moves.symbols();
+		for (int i = 0; i < STATES; i++)
+		{
+			states[i] = new GameState(engine.moves);
+			int length = random.nextInt(GameState.CAPACITY + 1);
+			for (int j = 0; j < length; j++)
+			{
+				states[i].push(symbols.charAt(random.nextInt(symbols.length())), symbols.charAt(random.nextInt(symbols.length())));
+			}
+			playerMoves[i] = symbols.charAt(random.nextInt(symbols.length()));
+		}
+
+		// warm up, then take the best of five runs
+		double best = 0;
+		for (int run = 0; run < 6; run++)
+		{
+			int sink = 0;
+			long start = System.nanoTime();
+			for (int i = 0; i < iterations; i++)
+			{
+				sink += engine.determineOptimalMove(states[i & (STATES - 1)], playerMoves[i & (STATES - 1)]);
+			}
+			double rate = iterations / ((System.nanoTime() - start) / 1e9);
+			if (run > 0)
+			{
+				best = Math.max(best, rate);
+			}
+			if (sink == 42)
+			{
+				System.out.print("");
+			}
+		}
+		System.out.println(String.format("%s: %.0f moves/sec", symbols, best));
+	}
+}
@@ -0,0 +1,84 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder event types emitted by PredictionEngine and Server. They cost next to
+ * nothing unless a recording enables them, e.g.
+ *   java -XX:StartFlightRecording:filename=rps.jfr,settings=profile Server
+ * and show up under "Intelli-RPS" in JDK Mission Control or `jfr print --events 'rps.*'`.
+ */
+public class EngineEvents
+{
+	private EngineEvents()
+	{
+	}
+
+	@Name("rps.ModelPhase")
+	@Label("Model Phase")
+	@Description("One phase of building or loading a model")
+	@Category({ "Intelli-RPS", "Engine" })
+	@StackTrace(false)
+	public static class ModelPhase extends Event
+	{
+		@Label("Phase")
+		@Description("train, holdout, index, calibrate, or snapshot")
+		String phase;
+
+		@Label("States")
+		int states;
+
+		ModelPhase(String phase)
+		{
+			this.phase = phase;
+		}
+	}
+
+	@Name("rps.Prediction")
+	@Label("Prediction")
+	@Description("One ensemble prediction")
+	@Category({ "Intelli-RPS", "Engine" })
+	@StackTrace(false)
+	public static class Prediction extends Event
+	{
+		@Label("History Length")
+		int historyLength;
+
+		@Label("Back-off Depth")
+		@Description("Rounds dropped before a suffix of the state was found in the data")
+		int backoffDepth;
+
+		@Label("Exact Hit")
+		@Description("Whether the full state was in the data")
+		boolean exactHit;
+
+		@Label("Quantized")
+		boolean quantized;
+
+		@Label("Computer Move")
+		char compMove;
+	}
+
+	@Name("rps.Request")
+	@Label("Play Request")
+	@Description("One /play request handled by Server")
+	@Category({ "Intelli-RPS", "Server" })
+	@StackTrace(false)
+	public static class Request extends Event
+	{
+		@Label("User History")
+		String user;
+
+		@Label("Computer History")
+		String computer;
+
+		@Label("Player Move")
+		String move;
+
+		@Label("Response")
+		String response;
+	}
+}
@@ -0,0 +1,257 @@
+/**
+ * Fixed-capacity rolling history of a game: the last CAPACITY moves of each side, held in
+ * ring buffers together with their base-k codes, so that recording a move and looking up
+ * the current state cost the same no matter how long a session runs. States deeper than
+ * CAPACITY never occur in the data, so nothing older is needed for prediction.
+ *
+ * Not thread-safe; each game owns its own GameState.
+ */
+public class GameState
+{
+	public static final int CAPACITY = 5;	/** Longest history kept (and the longest state in the data) */
+
+	private final MoveSet moveSet;	/** Move alphabet the codes are taken over */
+	private final char[] player = new char[CAPACITY];	/** Ring buffer of the player's last moves */
+	private final char[] computer = new char[CAPACITY];	/** Ring buffer of the computer's last moves */
+	private int head;	/** Slot the next move is written to */
+	private long moves;	/** Total moves played in the game, including those rolled out of the window */
+	private int playerCode;	/** Base-k code of the player's window, oldest move most significant */
+	private int computerCode;	/** Base-k code of the computer's window, oldest move most significant */
+
+
+	//================================================================================
+	// Constructors
+	//================================================================================
+
+	/**
+	 * Creates the state of a Rock-Paper-Scissors game with no moves played yet
+	 */
+	public GameState()
+	{
+		this(MoveSet.RPS);
+	}
+
+	/**
+	 * Creates the state of a k-move game with no moves played yet
+	 * @param  moveSet	- move alphabet of the game
+	 */
+	public GameState(MoveSet moveSet)
+	{
+		this.moveSet = moveSet;
+	}
+
+	/**
+	 * Creates a state from full history strings (as passed around by the older String APIs),
+	 * keeping only their last CAPACITY moves; "0" stands for an empty history
+	 * @param  player	- history of player moves
+	 * @param  computer	- history of computer moves
+	 * @return the equivalent rolling state
+	 */
+	public static GameState of(String player, String computer)
+	{
+		return of(MoveSet.RPS, player, computer);
+	}
+
+	/**
+	 * Creates a k-move game state from full history strings, keeping only their last CAPACITY moves
+	 * @param  moveSet	- move alphabet of the game
+	 * @param  player	- history of player moves
+	 * @param  computer	- history of computer moves
+	 * @return the equivalent rolling state
+	 */
+	public static GameState of(MoveSet moveSet, String player, String computer)
+	{
+		GameState state = new GameState(moveSet);
+		if (player.equals("0"))
+		{
+			return state;
+		}
+
+		int length = Math.min(player.length(), computer.length());
+		for (int i = Math.max(0, length - CAPACITY); i < length; i++)
+		{
+			state.push(player.charAt(player.length() - length + i), computer.charAt(computer.length() - length + i));
+		}
+		state.moves = length;
+		return state;
+	}
+
+	/**
+	 * Creates a state from base-3 coded histories (R=0, P=1, S=2, oldest move most significant)
+	 * @param  length	- number of moves in each history, at most CAPACITY
+	 * @param  playerCode	- coded player history
+	 * @param  computerCode	- coded computer history
+	 * @return the equivalent rolling state
+	 */
+	public static GameState fromCodes(int length, int playerCode, int computerCode)
+	{
+		return fromCodes(MoveSet.RPS, length, playerCode, computerCode);
+	}
+
+	/**
+	 * Creates a k-move game state from base-k coded histories (moves numbered in move set
+	 * order, oldest move most significant)
+	 * @param  moveSet	- move alphabet of the game
+	 * @param  length	- number of moves in each history, at most CAPACITY
+	 * @param  playerCode	- coded player history
+	 * @param  computerCode	- coded computer history
+	 * @return the equivalent rolling state
+	 */
+	public static GameState fromCodes(MoveSet moveSet, int length, int playerCode, int computerCode)
+	{
+		GameState state = new GameState(moveSet);
+		int k = moveSet.size();
+		int divisor = 1;
+		for (int i = 1; i < length; i++)
+		{
+			divisor *= k;
+		}
+		for (int i = 0; i < length; i++)
+		{
+			state.push(moveSet.symbol(playerCode / divisor % k), moveSet.symbol(computerCode / divisor % k));
+			divisor /= k;
+		}
+		return state;
+	}
+
+
+	//================================================================================
+	// Functions
+	//================================================================================
+
+	/**
+	 * Records one round, dropping the oldest round once the window is full
+	 * @param  playerMove	- character (e.g. 'R', 'P', or 'S') the player played
+	 * @param  compMove	- character (e.g. 'R', 'P', or 'S') the computer played
+	 * @throws IllegalArgumentException if either move is not in the move set
+	 */
+	public void push(char playerMove, char compMove)
+	{
+		if (moveSet.index(playerMove) < 0 || moveSet.index(compMove) < 0)
+		{
+			throw new IllegalArgumentException("Moves must be one of " + moveSet.symbols() + ", not " + playerMove + compMove);
+		}
+		player[head] = playerMove;
+		computer[head] = compMove;
+		head = (head + 1) % CAPACITY;
+		moves++;
+
+		int k = moveSet.size();
+		playerCode = (playerCode * k + moveSet.index(playerMove)) % moveSet.codeRange();
+		computerCode = (computerCode * k + moveSet.index(compMove)) % moveSet.codeRange();
+	}
+
+	/**
+	 * Forgets every move, as at the start of a new game
+	 */
+	public void reset()
+	{
+		head = 0;
+		moves = 0;
+		playerCode = computerCode = 0;
+	}
+
+	/**
+	 * @return move alphabet of the game
+	 */
+	public MoveSet moveSet()
+	{
+		return moveSet;
+	}
+
+	/**
+	 * @return number of moves held in the window (at most CAPACITY)
+	 */
+	public int length()
+	{
+		return (int)Math.min(moves, CAPACITY);
+	}
+
+	/**
+	 * @return total moves played in the game
+	 */
+	public long moves()
+	{
+		return moves;
+	}
+
+	/**
+	 * @param  back	- how many rounds back, 0 being the latest
+	 * @return the player's move that many rounds back
+	 */
+	public char playerMove(int back)
+	{
+		return player[(head - 1 - back + CAPACITY) % CAPACITY];
+	}
+
+	/**
+	 * @param  back	- how many rounds back, 0 being the latest
+	 * @return the computer's move that many rounds back
+	 */
+	public char computerMove(int back)
+	{
+		return computer[(head - 1 - back + CAPACITY) % CAPACITY];
+	}
+
+	/**
+	 * @return base-k code of the player's window
+	 */
+	public int playerCode()
+	{
+		return playerCode;
+	}
+
+	/**
+	 * @return base-k code of the computer's window
+	 */
+	public int computerCode()
+	{
+		return computerCode;
+	}
+
+	/**
+	 * @param  length	- number of latest moves to include, at most length()
+	 * @return the player's last moves, oldest first, or "0" for none
+	 */
+	public String playerHistory(int length)
+	{
+		return history(player, length);
+	}
+
+	/**
+	 * @param  length	- number of latest moves to include, at most length()
+	 * @return the computer's last moves, oldest first, or "0" for none
+	 */
+	public String computerHistory(int length)
+	{
+		return history(computer, length);
+	}
+
+	/**
+	 * @param  length	- number of latest moves to include, at most length()
+	 * @return key of the data table for the sub-game made of the last moves
+	 */
+	public String key(int length)
+	{
+		return playerHistory(length) + computerHistory(length);
+	}
+
+	private String history(char[] ring, int length)
+	{
+		if (length == 0)
+		{
+			return "0";
+		}
+		char[] moves = new char[length];
+		for (int i = 0; i < length; i++)
+		{
+			moves[i] = ring[(head - length + i + CAPACITY) % CAPACITY];
+		}
+		return new String(moves);
+	}
+
+	public String toString()
+	{
+		return playerHistory(length()) + " " + computerHistory(length());
+	}
+}
@@ -6,7 +6,16 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.File;
 import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.imageio.ImageIO;
 import javax.swing.ImageIcon;
@@ -14,6 +23,7 @@ import javax.swing.JButton;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 
 public class GuiRunner extends JPanel implements ActionListener {
 
@@ -22,9 +32,24 @@ public class GuiRunner extends JPanel implements ActionListener {
 					scissorsButton,
 					resetButton;
 	
-	private static String pHist, cHist;
+	private static final char RESET = 'X';	/** Queued in place of a move to start a new game */
+	
+	// game state, owned by the engine thread once the window is up
+	private static GameState history;
 	private static double wins, ties, losses, games;
-	private static PredictionEngine engine;
+	private static char lastPlayerMove, lastCompMove;
+	private static double lastLatency, totalLatency;
+	
+	private static CompletableFuture<PredictionEngine> engineReady;
+	
+	// predictions run off the event dispatch thread, one move at a time in click order
+	private static final ExecutorService engineThread = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "prediction-engine");
+		t.setDaemon(true);
+		return t;
+	});
+	private static final Queue<Character> pendingMoves = new ConcurrentLinkedQueue<Character>();
+	private static final AtomicBoolean draining = new AtomicBoolean();
 	
 	private static ImageIcon rockIcon,
 			paperIcon,
@@ -38,10 +63,16 @@ public class GuiRunner extends JPanel implements ActionListener {
 						  cMove;
 	
 	private static JLabel stats;
+	private static JLabel status;
 	
 	private static GridBagConstraints c;
 	
 	public static void main(String[] args) throws IOException {
+		// load the model while the window is being built; moves and reset stay disabled until it is ready.
+		// The board only draws Rock, Paper and Scissors, so it ignores rps.moves and rps.data
+		engineReady = CompletableFuture.supplyAsync(
+				() -> PredictionEngine.warmStart(MoveSet.RPS, new File(PredictionEngine.DEFAULT_DATA)));
+		
 		rockIcon = new ImageIcon(ImageIO.read(GuiRunner.class.getResourceAsStream("images/rock.png")));
 		paperIcon = new ImageIcon(ImageIO.read(GuiRunner.class.getResourceAsStream("images/paper.png")));
 		scissorsIcon = new ImageIcon(ImageIO.read(GuiRunner.class.getResourceAsStream("images/scissors.png")));
@@ -50,16 +81,14 @@ public class GuiRunner extends JPanel implements ActionListener {
 		cScissorsIcon = new ImageIcon(ImageIO.read(GuiRunner.class.getResourceAsStream("images/Cscissors.png")));
 		defaultIcon = new ImageIcon(ImageIO.read(GuiRunner.class.getResourceAsStream("images/default.png")));
 		
-		JFrame f = new RPSFrame();
-	    f.setVisible(true);
-	    
 	    wins = 0;
 	    ties = 0;
 	    losses = 0;
 	    games = 0;
-	    pHist = "0";
-	    cHist = "0";
-	    engine = new PredictionEngine();
+	    history = new GameState();
+	    
+		JFrame f = new RPSFrame();
+	    f.setVisible(true);
 	}
 	
 	public GuiRunner()
@@ -77,6 +106,7 @@ public class GuiRunner extends JPanel implements ActionListener {
 		cMove = new JLabel(defaultIcon);
 		stats = new JLabel("Win/Loss: -% (0-0-0/0)");
 		resetButton = new JButton("Reset");
+		status = new JLabel("Model: loading");
 		
 		c.weightx = 1;
 		c.weighty = 1;
@@ -93,6 +123,20 @@ public class GuiRunner extends JPanel implements ActionListener {
 		scissorsButton.addActionListener(this);
 		resetButton.addActionListener(this);
 		
+		setControlsEnabled(false);
+		stats.setText("Loading model...");
+		engineReady.whenComplete((e, error) -> SwingUtilities.invokeLater(() -> {
+			if (error != null)
+			{
+				stats.setText("Model failed to load");
+				status.setText("Model: failed");
+				return;
+			}
+			stats.setText("Win/Loss: -% (0-0-0/0)");
+			status.setText("Model: ready");
+			setControlsEnabled(true);
+		}));
+		
 		c.gridx = 1;
 		c.gridy = 0;
 		c.gridheight = 3;
@@ -108,6 +152,18 @@ public class GuiRunner extends JPanel implements ActionListener {
 		c.gridy = 4;
 		c.gridheight = 2;
 		add(resetButton, c);
+		
+		c.gridy = 6;
+		c.gridheight = 1;
+		c.gridwidth = 2;
+		add(status, c);
+	}
+
+	private void setControlsEnabled(boolean enabled) {
+		rockButton.setEnabled(enabled);
+		paperButton.setEnabled(enabled);
+		scissorsButton.setEnabled(enabled);
+		resetButton.setEnabled(enabled);
 	}
 
 	public void paintComponent(Graphics g) {
@@ -154,51 +210,72 @@ public class GuiRunner extends JPanel implements ActionListener {
 		}
 		else if (com.equals("Reset"))
 		{
-			pHist = "0";
-			cHist = "0";
-			games = 0;
-			ties = 0;
-			losses = 0;
-			wins = 0;
-			stats.setText("Win/Loss: -% (0-0-0/0)");
+			playerMove = RESET;
 			pMove.setIcon(defaultIcon);
 			cMove.setIcon(defaultIcon);
-			return;
 		}
 		
-		char compMove = engine.determineOptimalMove(pHist, cHist);
-		switch (compMove)
+		// queue the move; a drain already scheduled will pick it up
+		pendingMoves.add(playerMove);
+		if (draining.compareAndSet(false, true))
 		{
-		case 'R':
-			cMove.setIcon(cRockIcon);
-			break;
-		case 'P':
-			cMove.setIcon(cPaperIcon);
-			break;
-		case 'S':
-			cMove.setIcon(cScissorsIcon);
-			break;
+			engineThread.execute(GuiRunner::drainMoves);
 		}
-		
-		if (pHist.equals("0"))
-		{
-			pHist = playerMove + "";
+	}
+	
+	/**
+	 * Plays every queued move in order on the engine thread, then hands a single
+	 * snapshot of the result back to the event dispatch thread
+	 */
+	private static void drainMoves() {
+		PredictionEngine engine;
+		try {
+			engine = engineReady.join();
 		}
-		else
-		{
-			pHist += playerMove;
+		catch (CompletionException | CancellationException e) {
+			// the model never loaded (the window says so); drop the moves and stay idle
+			pendingMoves.clear();
+			draining.set(false);
+			return;
 		}
-		
-		if (cHist.equals("0"))
+		do
 		{
-			cHist = compMove + "";
-		}
-		else
+			Character move;
+			while ((move = pendingMoves.poll()) != null)
+			{
+				play(engine, move);
+			}
+			publish(pendingMoves.size());
+			draining.set(false);
+		} while (!pendingMoves.isEmpty() && draining.compareAndSet(false, true));
+	}
+	
+	/**
+	 * Plays one queued move (or reset) against the engine; runs on the engine thread
+	 */
+	private static void play(PredictionEngine engine, char playerMove) {
+		if (playerMove == RESET)
 		{
-			cHist += compMove;
-		}	
+			history.reset();
+			games = 0;
+			ties = 0;
+			losses = 0;
+			wins = 0;
+			totalLatency = 0;
+			lastPlayerMove = lastCompMove = RESET;
+			return;
+		}
+		
+		long start = System.nanoTime();
+		char compMove = engine.determineOptimalMove(history, playerMove);
+		lastLatency = (System.nanoTime() - start) / 1e6;
+		
+		history.push(playerMove, compMove);
+		lastPlayerMove = playerMove;
+		lastCompMove = compMove;
 		
 		games++;
+		totalLatency += lastLatency;
 		char outcome = engine.determineWinner(playerMove, compMove);
 		if (outcome == 'H')
 		{
@@ -212,8 +289,59 @@ public class GuiRunner extends JPanel implements ActionListener {
 		{
 			ties++;
 		}
-		double percent = wins / (wins + losses) * 100.0;	
-		String s = String.format("Win/Loss: %2.2f%% (%d-%d-%d/%d)", percent, (int) wins, (int) ties, (int) losses, (int) games);
-		stats.setText(s);
+	}
+	
+	/**
+	 * Shows the state after the latest played move; called on the engine thread
+	 */
+	private static void publish(int queued) {
+		final char playerMove = lastPlayerMove;
+		final char compMove = lastCompMove;
+		final String s;
+		final String statusText;
+		if (games == 0)
+		{
+			s = "Win/Loss: -% (0-0-0/0)";
+			statusText = "Model: ready";
+		}
+		else
+		{
+			double percent = wins / (wins + losses) * 100.0;	
+			s = String.format("Win/Loss: %2.2f%% (%d-%d-%d/%d)", percent, (int) wins, (int) ties, (int) losses, (int) games);
+			statusText = String.format("Model: ready | prediction %.3f ms (avg %.3f ms) | queued %d", lastLatency, totalLatency / games, queued);
+		}
+		
+		SwingUtilities.invokeLater(() -> {
+			switch (playerMove)
+			{
+			case 'R':
+				pMove.setIcon(rockIcon);
+				break;
+			case 'P':
+				pMove.setIcon(paperIcon);
+				break;
+			case 'S':
+				pMove.setIcon(scissorsIcon);
+				break;
+			default:
+				pMove.setIcon(defaultIcon);
+			}
+			switch (compMove)
+			{
+			case 'R':
+				cMove.setIcon(cRockIcon);
+				break;
+			case 'P':
+				cMove.setIcon(cPaperIcon);
+				break;
+			case 'S':
+				cMove.setIcon(cScissorsIcon);
+				break;
+			default:
+				cMove.setIcon(defaultIcon);
+			}
+			stats.setText(s);
+			status.setText(statusText);
+		});
 	}
 }
@@ -0,0 +1,104 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives a {@link BinaryServer} with random games over several pipelined connections and
+ * reports the sustained moves per second, overall and per server selector thread (core)
+ */
+public class LoadGenerator
+{
+	/**
+	 * Usage: java LoadGenerator [host] [port] [connections] [pipeline depth] [seconds] [server threads]
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		final String host = args.length > 0 ? args[0] : "localhost";
+		final int port = args.length > 1 ? Integer.parseInt(args[1]) : 3233;
+		int connections = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+		final int depth = args.length > 3 ? Integer.parseInt(args[3]) : 64;
+		int seconds = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+		int serverThreads = args.length > 5 ? Integer.parseInt(args[5]) : 1;
+
+		final AtomicLong moves = new AtomicLong();
+		final long warmupEnd = System.nanoTime() + 2000000000L;
+		final long end = warmupEnd + seconds * 1000000000L;
+
+		Thread[] clients = new Thread[connections];
+		for (int i = 0; i < connections; i++)
+		{
+			final long seed = i;
+			clients[i] = new Thread(() -> {
+				try {
+					run(host, port, depth, seed, warmupEnd, end, moves);
+				}
+				catch (IOException e) {
+					e.printStackTrace();
+				}
+			});
+			clients[i].start();
+		}
+		for (Thread client : clients)
+		{
+			client.join();
+		}
+
+		double rate = moves.get() / (double)seconds;
+		System.out.println(String.format("%d connections, pipeline depth %d: %.0f moves/sec, %.0f moves/sec per server core",
+				connections, depth, rate, rate / serverThreads));
+	}
+
+	/**
+	 * Keeps one connection busy with batches of depth pipelined requests until the end time,
+	 * counting the answered moves once the warm-up period is over
+	 */
+	private static void run(String host, int port, int depth, long seed, long warmupEnd, long end, AtomicLong moves) throws IOException
+	{
+		SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+		channel.socket().setTcpNoDelay(true);
+		ByteBuffer requests = ByteBuffer.allocateDirect(BinaryServer.REQUEST_SIZE * depth);
+		ByteBuffer responses = ByteBuffer.allocateDirect(BinaryServer.RESPONSE_SIZE * depth);
+		Random random = new Random(seed);
+		long session = seed << 32;
+
+		long now;
+		while ((now = System.nanoTime()) < end)
+		{
+			requests.clear();
+			for (int i = 0; i < depth; i++)
+			{
+				int length = random.nextInt(BinaryServer.MAX_HISTORY + 1);
+				int states = (int)Math.pow(3, length);
+				requests.putLong(session++);
+				requests.put((byte)length);
+				requests.put((byte)MoveSet.RPS.symbol(random.nextInt(3)));
+				requests.putShort((short)random.nextInt(states));
+				requests.putShort((short)random.nextInt(states));
+				requests.putShort((short)0);
+			}
+			requests.flip();
+			while (requests.hasRemaining())
+			{
+				channel.write(requests);
+			}
+
+			responses.clear();
+			while (responses.hasRemaining())
+			{
+				if (channel.read(responses) < 0)
+				{
+					throw new IOException("Server closed the connection");
+				}
+			}
+
+			if (now >= warmupEnd)
+			{
+				moves.addAndGet(depth);
+			}
+		}
+		channel.close();
+	}
+}
@@ -0,0 +1,205 @@
+import java.util.*;
+
+/**
+ * Move alphabet and payoff matrix of a k-move game (Rock-Paper-Scissors, Rock-Paper-Scissors-
+ * Lizard-Spock, ...). Every per-move decision of the engine (move indexing, state codes,
+ * best responses, and winners) is a lookup in the tables precomputed here.
+ */
+public class MoveSet
+{
+	//================================================================================
+	// Fields
+	//================================================================================
+
+	/** Rock-Paper-Scissors; data/openings.txt lists its counts in R, S, P order */
+	public static final MoveSet RPS = new MoveSet("RPS", "RSP", "RS", "PR", "SP");
+
+	/** Rock-Paper-Scissors-Lizard-Spock, with Spock as 'K' */
+	public static final MoveSet RPSLK = new MoveSet("RPSLK", "RPSLK",
+			"RS", "RL", "PR", "PK", "SP", "SL", "LP", "LK", "KR", "KS");
+
+	private final String symbols;	/** Moves in the order used by every count array */
+	private final String fileOrder;	/** Order of the count columns in a data file */
+	private final int[] payoff;	/** payoff[a*k + b]: +1 if move a beats move b, -1 if it loses, 0 otherwise */
+	private final byte[] index = new byte[128];	/** Index of each move character, -1 for anything else */
+	private final int[] fileColumns;	/** Index of the move counted in each data file column */
+	private final int[] counter;	/** Best response to each predicted move */
+	private final char[] winner;	/** winner[player*k + computer]: 'H', 'C', or 'D' */
+	private final int codeRange;	/** k^GameState.CAPACITY, number of distinct full-length history codes */
+
+
+	//================================================================================
+	// Constructors
+	//================================================================================
+
+	/**
+	 * Creates a move set from its alphabet and its winning pairs
+	 * @param  symbols	- one character per move; the order is used by every count array
+	 * @param  fileOrder	- the same characters in the order of the data file's count columns
+	 * @param  beats	- two-character strings "ab", each meaning move a beats move b
+	 */
+	public MoveSet(String symbols, String fileOrder, String... beats)
+	{
+		int k = symbols.length();
+		this.symbols = symbols;
+		this.fileOrder = fileOrder;
+
+		Arrays.fill(index, (byte)-1);
+		for (int i = 0; i < k; i++)
+		{
+			index[symbols.charAt(i)] = (byte)i;
+			index[Character.toLowerCase(symbols.charAt(i))] = (byte)i;
+		}
+
+		fileColumns = new int[k];
+		for (int i = 0; i < k; i++)
+		{
+			fileColumns[i] = index(fileOrder.charAt(i));
+			if (fileColumns[i] < 0)
+			{
+				throw new IllegalArgumentException("File order " + fileOrder + " does not match moves " + symbols);
+			}
+		}
+
+		payoff = new int[k * k];
+		for (String pair : beats)
+		{
+			int a = index(pair.charAt(0));
+			int b = index(pair.charAt(1));
+			payoff[a * k + b] = 1;
+			payoff[b * k + a] = -1;
+		}
+
+		winner = new char[k * k];
+		for (int player = 0; player < k; player++)
+		{
+			for (int computer = 0; computer < k; computer++)
+			{
+				int p = payoff[player * k + computer];
+				winner[player * k + computer] = p > 0 ? 'H' : p < 0 ? 'C' : 'D';
+			}
+		}
+
+		// best response: the move with the highest payoff against the prediction, first in alphabet order on ties
+		counter = new int[k];
+		for (int predicted = 0; predicted < k; predicted++)
+		{
+			int best = 0;
+			for (int move = 1; move < k; move++)
+			{
+				if (payoff[move * k + predicted] > payoff[best * k + predicted])
+				{
+					best = move;
+				}
+			}
+			counter[predicted] = best;
+		}
+
+		int range = 1;
+		for (int i = 0; i < GameState.CAPACITY; i++)
+		{
+			range *= k;
+		}
+		codeRange = range;
+	}
+
+
+	//================================================================================
+	// Functions
+	//================================================================================
+
+	/**
+	 * @param  name	- name of a preset, "RPS" or "RPSLK"
+	 * @return the preset move set
+	 */
+	public static MoveSet named(String name)
+	{
+		switch (name.toUpperCase())
+		{
+			case "RPS":
+				return RPS;
+			case "RPSLK":
+				return RPSLK;
+			default:
+				throw new IllegalArgumentException("Unknown move set " + name + ", expected RPS or RPSLK");
+		}
+	}
+
+	/**
+	 * @return number of moves, k
+	 */
+	public int size()
+	{
+		return symbols.length();
+	}
+
+	/**
+	 * @return the moves, in count-array order
+	 */
+	public String symbols()
+	{
+		return symbols;
+	}
+
+	/**
+	 * @return the move characters in the order of the data file's count columns
+	 */
+	public String fileOrder()
+	{
+		return fileOrder;
+	}
+
+	/**
+	 * @param  i	- index of a move
+	 * @return character of the move
+	 */
+	public char symbol(int i)
+	{
+		return symbols.charAt(i);
+	}
+
+	/**
+	 * @param  move	- character of a move (either case)
+	 * @return index of the move, or -1 if it is not in this move set
+	 */
+	public int index(char move)
+	{
+		return move < 128 ? index[move] : -1;
+	}
+
+	/**
+	 * @param  column	- count column of a data file line
+	 * @return index of the move counted in that column
+	 */
+	public int fileColumn(int column)
+	{
+		return fileColumns[column];
+	}
+
+	/**
+	 * @param  predicted	- index of the player's predicted move
+	 * @return index of the computer move that does best against it
+	 */
+	public int counter(int predicted)
+	{
+		return counter[predicted];
+	}
+
+	/**
+	 * @param  player	- index of the player's move
+	 * @param  computer	- index of the computer's move
+	 * @return 'H', 'C', or 'D': human win, computer win, or draw
+	 */
+	public char winner(int player, int computer)
+	{
+		return winner[player * symbols.length() + computer];
+	}
+
+	/**
+	 * @return k^GameState.CAPACITY, the number of distinct full-length history codes
+	 */
+	public int codeRange()
+	{
+		return codeRange;
+	}
+}
@@ -12,12 +12,12 @@ public class Play
 	public static void main(String[] args) {
 		try {
 			BufferedReader bufferReader = new BufferedReader(new InputStreamReader(System.in));
-            engine = new PredictionEngine();
+            engine = PredictionEngine.warmStart();
 			String text = bufferReader.readLine();
 			String[] tokens = text.split("\\s");
             playerHistory = tokens[0];
             computerHistory = tokens[1];
-            char compMove = engine.determineOptimalMove(playerHistory, computerHistory);
+            char compMove = engine.determineOptimalMove(GameState.of(engine.moves, playerHistory, computerHistory));
             String playerMove = tokens[2];
             char winner = engine.determineWinner(playerMove.charAt(0), compMove);
             System.out.print(compMove + " " + winner );
@@ -1,5 +1,6 @@
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 public class PredictionEngine
 {
@@ -9,11 +10,26 @@ public class PredictionEngine
 
 	final int ADDITIVE_SMOOTHING_FACTOR = 5;	/** Smoothing factor for Laplace smoothing */
 	final int ADDITIVE_SMOOTHING_CONST = 1;	/** Smoothing constant for Laplace smoothing */
+	static final String DEFAULT_DATA = "data/openings.txt";	/** Default file with the game data */
+	static final String DEFAULT_SNAPSHOT = "data/model.snapshot";	/** Default prebuilt model snapshot */
+	static final String DATA = System.getProperty("rps.data", DEFAULT_DATA);	/** Data file the entry points train from */
+	static final MoveSet MOVES = MoveSet.named(System.getProperty("rps.moves", "RPS"));	/** Game the entry points play, e.g. RPSLK */
+	static final int SNAPSHOT_MAGIC = 0x52505333;	/** "RPS3", marks a model snapshot file */
 
-	// Optimal prediction algorithm vote-weights for Naive Bayes, Full Bayes, and Adapted Nearest Neighbor
-	// algorithms, determined through testing at the object's construction
-	double NB_WEIGHT, FB_WEIGHT, ANN_WEIGHT;
+	final double HIT_RATE_DECAY = 0.01;	/** Per-move decay of the live hit rates (roughly a 100-move window) */
+	static final int ALGORITHMS = 4;	/** Naive Bayes, Full Bayes, Adapted Nearest Neighbor, and Context Mixture */
+	static final int FOLD_EVERY = 16;	/** Moves a thread tallies before folding them into the shared hit rates */
+	static final int RATE_STRIDE = 16;	/** Slots between two hit rates, so each sits on its own cache line */
+	final double FOLD_DECAY = 1 - Math.pow(1 - HIT_RATE_DECAY, FOLD_EVERY);	/** Decay of one fold of FOLD_EVERY moves */
 
+	// Exponentially decayed live hit rates (stored as double bits, RATE_STRIDE slots apart) for Naive
+	// Bayes, Full Bayes, Adapted Nearest Neighbor, and Context Mixture, seeded from the calibration at
+	// the object's construction and updated as actual player moves come in; they are the vote-weights
+	final AtomicLongArray hitRates = new AtomicLongArray(ALGORITHMS * RATE_STRIDE);
+	/** Hits of each algorithm, then the number of moves, tallied by the calling thread since its last fold */
+	private final ThreadLocal<int[]> hitTallies = ThreadLocal.withInitial(() -> new int[ALGORITHMS + 1]);
+
+	final MoveSet moves;	/** Move alphabet and payoff matrix of the game being played */
 	File dataFile;	/** Handle to file holding the game data */
 	/**
 	 * Container for all historical game data (courtesy of Shawn Bayern)
@@ -21,19 +37,32 @@ public class PredictionEngine
 	 * move at that game state (in previous played matches)
 	 */
 	HashMap<String, int[]> data;
-	ArrayList<Datapoint> testPoints;
-	ArrayList<Datapoint> testData;
+	/**
+	 * Held-out samples used for calibration, keyed like data; each value holds how many
+	 * samples of each move at that game state were taken out of data
+	 */
+	HashMap<String, int[]> testData;
+	/** Suffix index over data, walked once per prediction; replaced whole by useQuantizedIndex() */
+	volatile ContextIndex index;
+	/** Whether the index is the compact QuantizedModel rather than the exact ContextTree (-Drps.quantizedIndex=true) */
+	volatile boolean quantizedIndex = Boolean.getBoolean("rps.quantizedIndex");
+	/** Run every so often while the engine is being built, so a background build can be throttled; null once built */
+	private Runnable buildCheckpoint;
+	/** Move counts summed over every computer history, per player history (Naive Bayes P(X1|Y)) */
+	HashMap<String, int[]> playerMarginal;
+	/** Move counts summed over every player history, per computer history (Naive Bayes P(X2|Y)) */
+	HashMap<String, int[]> computerMarginal;
 
-	int numRocks;	/** Number of instances where player played "rocks" in the dataset */
-	int numPapers;	/** Number of instances where player played "paper" in the dataset */
-	int numScissors;	/** Number of instances where player played "scissors" in the dataset */
+	/** Number of instances where player played each move (e.g. "rock") in the dataset */
+	int[] numMoves;
 	/**
-	 * Calculated prior for Bayes implementations, such that:
+	 * Calculated prior for Bayes implementations, such that for the RPS move set:
 	 * PY[0] := unconditional probability of Rock
 	 * PY[1] := unconditional probability of Paper
 	 * PY[2] := unconditional probability of Scissors
+	 * Replaced whole (never written in place) when the counts change, so readers see a consistent prior
 	 */
-	double[] PY;
+	volatile double[] PY;
 	
 	
 	//================================================================================
@@ -47,9 +76,45 @@ public class PredictionEngine
 	 */
 	public PredictionEngine(File fileName)
 	{
+		this(fileName, MoveSet.RPS);
+	}
+
+	/**
+	 * Creates a new PredictionEngine instance for a k-move game from a File handle
+	 * holding the data, whose lines carry one count column per move in the move set's file order
+	 * @param  fileName	- handle to File with data
+	 * @param  moves	- move alphabet and payoff matrix of the game
+	 */
+	public PredictionEngine(File fileName, MoveSet moves)
+	{
+		this(fileName, moves, Collections.<String, long[]>emptyMap(), null);
+	}
+
+	/**
+	 * Creates a new PredictionEngine instance for a k-move game from a File handle holding the
+	 * data together with moves observed since (e.g. merged by a CountReplica)
+	 * @param  fileName	- handle to File with data
+	 * @param  moves	- move alphabet and payoff matrix of the game
+	 * @param  observed	- number of observations of each move, per game state key, on top of the data
+	 * @param  checkpoint	- run every so often during the build (e.g. to throttle it), or null; when given,
+	 * the build is taken to run in the background, and an unreadable data file throws UncheckedIOException
+	 * instead of exiting the process
+	 */
+	public PredictionEngine(File fileName, MoveSet moves, Map<String, long[]> observed, Runnable checkpoint)
+	{
+		this.moves = moves;
 		dataFile = fileName;
+		buildCheckpoint = checkpoint;
+
+		EngineEvents.ModelPhase event = new EngineEvents.ModelPhase("train");
+		event.begin();
 		train();
+		addObserved(observed);
+		event.states = data.size();
+		event.commit();
+
 		testAll(0.1); // use 10% of data for testing
+		buildCheckpoint = null;
 	}
 
 	/**
@@ -63,12 +128,144 @@ public class PredictionEngine
 	}
 	
 	/**
-	 * Creates a new PredictionEngine instance with default filename
-	 * of "openings.txt" for file with the data
+	 * Creates a new PredictionEngine instance for the configured game (the "rps.moves" system
+	 * property, RPS by default) from the configured data file (the "rps.data" system property,
+	 * "data/openings.txt" by default)
 	 */	
 	public PredictionEngine()
 	{
-		this(new File("data/openings.txt"));
+		this(new File(DATA), MOVES);
+	}
+
+	/**
+	 * Restores a trained and calibrated PredictionEngine from a snapshot written by
+	 * {@link #saveSnapshot(File)}, skipping training and calibration entirely
+	 * @param  dataFile	- handle to File with the data the snapshot was built from
+	 * @param  in	- stream positioned at the start of the snapshot
+	 */
+	private PredictionEngine(File dataFile, MoveSet moves, DataInputStream in) throws IOException
+	{
+		this.moves = moves;
+		this.dataFile = dataFile;
+		if (in.readInt() != SNAPSHOT_MAGIC)
+		{
+			throw new IOException("Not a model snapshot");
+		}
+		if (!in.readUTF().equals(moves.symbols()))
+		{
+			throw new IOException("Snapshot was built for a different move set");
+		}
+
+		int k = moves.size();
+		int states = in.readInt();
+		data = new HashMap<String, int[]>(states * 4 / 3 + 1);
+		numMoves = new int[k];
+		for (int i = 0; i < states; i++)
+		{
+			String key = in.readUTF();
+			int[] counts = new int[k];
+			for (int move = 0; move < k; move++)
+			{
+				counts[move] = in.readInt();
+				numMoves[move] += counts[move];
+			}
+
+			data.put(key, counts);
+		}
+
+		updatePrior();
+		buildIndex();
+
+		setWeights(in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble());
+	}
+
+	/**
+	 * Loads a PredictionEngine from a model snapshot
+	 * @param  snapshot	- handle to File written by {@link #saveSnapshot(File)}
+	 * @return the restored engine
+	 */
+	public static PredictionEngine loadSnapshot(File snapshot) throws IOException
+	{
+		return loadSnapshot(snapshot, MOVES);
+	}
+
+	/**
+	 * Loads a PredictionEngine for a k-move game from a model snapshot of the configured data file
+	 * @param  snapshot	- handle to File written by {@link #saveSnapshot(File)}
+	 * @param  moves	- move set the snapshot was built for
+	 * @return the restored engine
+	 */
+	public static PredictionEngine loadSnapshot(File snapshot, MoveSet moves) throws IOException
+	{
+		return loadSnapshot(snapshot, moves, new File(DATA));
+	}
+
+	/**
+	 * Loads a PredictionEngine for a k-move game from a model snapshot
+	 * @param  snapshot	- handle to File written by {@link #saveSnapshot(File)}
+	 * @param  moves	- move set the snapshot was built for
+	 * @param  dataFile	- handle to File with the data the snapshot was built from
+	 * @return the restored engine
+	 */
+	public static PredictionEngine loadSnapshot(File snapshot, MoveSet moves, File dataFile) throws IOException
+	{
+		EngineEvents.ModelPhase event = new EngineEvents.ModelPhase("snapshot");
+		event.begin();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshot)));
+		try {
+			PredictionEngine engine = new PredictionEngine(dataFile, moves, in);
+			event.states = engine.data.size();
+			return engine;
+		}
+		finally {
+			in.close();
+			event.commit();
+		}
+	}
+
+	/**
+	 * Creates a PredictionEngine for interactive entry points, for the configured game and data
+	 * file (the "rps.moves" and "rps.data" system properties)
+	 * @return a ready-to-use engine
+	 */
+	public static PredictionEngine warmStart()
+	{
+		return warmStart(MOVES, new File(DATA));
+	}
+
+	/**
+	 * Creates a PredictionEngine for interactive entry points: restores the prebuilt snapshot
+	 * (the "rps.snapshot" system property, "data/model.snapshot" by default) when it is at
+	 * least as new as the data and built for the same game, and falls back to training from
+	 * the data otherwise
+	 * @param  moves	- move alphabet and payoff matrix of the game
+	 * @param  dataFile	- handle to File with data
+	 * @return a ready-to-use engine
+	 */
+	public static PredictionEngine warmStart(MoveSet moves, File dataFile)
+	{
+		File snapshot = new File(System.getProperty("rps.snapshot", DEFAULT_SNAPSHOT));
+		if (snapshot.isFile() && snapshot.lastModified() >= dataFile.lastModified())
+		{
+			try {
+				return loadSnapshot(snapshot, moves, dataFile);
+			}
+			catch (IOException e) {
+				System.err.println("Could not read model snapshot, retraining.");
+			}
+		}
+		return new PredictionEngine(dataFile, moves);
+	}
+
+	/**
+	 * Builds the model snapshot used by {@link #warmStart()}
+	 * @param  args	- optional path of the snapshot to write
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		File snapshot = new File(args.length > 0 ? args[0] : DEFAULT_SNAPSHOT);
+		new PredictionEngine().saveSnapshot(snapshot);
+		System.out.println("Wrote " + snapshot);
 	}
 	
 
@@ -86,146 +283,252 @@ public class PredictionEngine
 			line = new Scanner(dataFile);
 		}
 		catch (IOException e) {
+			// a background rebuild must fail on its own, leaving the live engine serving
+			if (buildCheckpoint != null)
+			{
+				throw new UncheckedIOException("Cannot read " + dataFile, e);
+			}
 			System.out.println("IOException has occured. Exiting.");
 			System.exit(1);
 		}
 		
 		data = new HashMap<String, int[]>(6210);
 
-		PY = new double[3];
-		numRocks = numPapers = numScissors = 0;
+		int k = moves.size();
+		numMoves = new int[k];
 		
 		// All terminal moves
 		while(line.hasNextLine() && line.hasNext())
 		{
+			checkpoint();
 			String key = line.next() + line.next();
 			
-			int[] RPS = new int[3];
-			RPS[0] = line.nextInt()*ADDITIVE_SMOOTHING_FACTOR + ADDITIVE_SMOOTHING_CONST;
-			RPS[2] = line.nextInt()*ADDITIVE_SMOOTHING_FACTOR + ADDITIVE_SMOOTHING_CONST;
-			RPS[1] = line.nextInt()*ADDITIVE_SMOOTHING_FACTOR + ADDITIVE_SMOOTHING_CONST;
+			// the file lists the counts in the move set's file order (R, S, P for RPS);
+			// they are stored in move set order
+			int[] counts = new int[k];
+			for (int column = 0; column < k; column++)
+			{
+				counts[moves.fileColumn(column)] = line.nextInt()*ADDITIVE_SMOOTHING_FACTOR + ADDITIVE_SMOOTHING_CONST;
+			}
 			
-			numRocks += RPS[0];
-			numPapers += RPS[1];
-			numScissors += RPS[2];
+			for (int move = 0; move < k; move++)
+			{
+				numMoves[move] += counts[move];
+			}
 			
-			data.put(key, RPS);
+			data.put(key, counts);
 		}
 		
-		double total = numRocks + numPapers + numScissors;
-		
-		PY[0] = numRocks / total;
-		PY[1] = numPapers / total;
-		PY[2] = numScissors / total;
+		updatePrior();
 	}
 
+	/**
+	 * Folds observed moves into freshly trained counts, scaled like the training data; unlike
+	 * addCounts() this may add game states, so it must run before the index is built
+	 * @param  observed	- number of observations of each move, per game state key
+	 */
+	private void addObserved(Map<String, long[]> observed)
+	{
+		for (Map.Entry<String, long[]> entry : observed.entrySet())
+		{
+			int[] counts = data.get(entry.getKey());
+			if (counts == null)
+			{
+				counts = new int[moves.size()];
+				Arrays.fill(counts, ADDITIVE_SMOOTHING_CONST);
+				data.put(entry.getKey(), counts);
+				for (int move = 0; move < counts.length; move++)
+				{
+					numMoves[move] += ADDITIVE_SMOOTHING_CONST;
+				}
+			}
+
+			long[] delta = entry.getValue();
+			for (int move = 0; move < counts.length; move++)
+			{
+				int added = (int)delta[move] * ADDITIVE_SMOOTHING_FACTOR;
+				counts[move] += added;
+				numMoves[move] += added;
+			}
+		}
+		updatePrior();
+	}
 
 	/**
-	 * Uses Naive Bayes to generate a prediction for the player's next move
-	 * @param  player	- current history of player's moves
-	 * @param  computer	- current history of computer's moves
-	 * @return character ('R', 'P', or 'S') representing the predicted player's move
+	 * Gives a background build the chance to yield
 	 */
-	public char naiveBayes(String player, String computer)
+	private void checkpoint()
 	{
-		String key = player + computer;
-		int[] result = data.get(key);
-	
-		if (player.length() > 5)
+		if (buildCheckpoint != null)
 		{
-			player = player.substring(player.length()-5);
-			computer = computer.substring(computer.length()-5);
+			buildCheckpoint.run();
 		}
+	}
 
-		// Generate every valid opponent and player move
-		int[] computerCounts = new int[3];
-		int[] playerCounts = new int[3];
-		generateComputerCombinations(player, "", player.length(), playerCounts, computerCounts);
-		generatePlayerCombinations("", computer, computer.length(), playerCounts, computerCounts);
-		
-		// P(Y|X)=P(X1|Y)*P(X2|Y)*P(Y)
-		double pRock = ((double)playerCounts[0]/numRocks) * ((double)computerCounts[0]/numRocks) * PY[0];
-		double pPaper = ((double)playerCounts[1]/numPapers) * ((double)computerCounts[1]/numPapers) * PY[1];
-		double pScissors = ((double)playerCounts[2]/numScissors) * ((double)computerCounts[2]/numScissors) * PY[2];
+	/**
+	 * Recomputes the prior PY from the per-move totals
+	 */
+	void updatePrior()
+	{
+		double total = 0;
+		for (int count : numMoves)
+		{
+			total += count;
+		}
 		
-		// Return prediction based on calculated P(Y|X)
-		if (pRock > pPaper)
+		double[] prior = new double[numMoves.length];
+		for (int move = 0; move < numMoves.length; move++)
 		{
-			if (pRock > pScissors)
+			prior[move] = numMoves[move] / total;
+		}
+		PY = prior;
+	}
+
+
+	/**
+	 * Writes the trained and calibrated model (the counts left after holding out the test data,
+	 * and the calibrated hit rates) so that later launches can skip training
+	 * @param  snapshot	- handle to File to write
+	 */
+	public void saveSnapshot(File snapshot) throws IOException
+	{
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(snapshot)));
+		try {
+			out.writeInt(SNAPSHOT_MAGIC);
+			out.writeUTF(moves.symbols());
+			out.writeInt(data.size());
+			for (Map.Entry<String, int[]> entry : data.entrySet())
 			{
-				return 'R';
+				out.writeUTF(entry.getKey());
+				for (int count : entry.getValue())
+				{
+					out.writeInt(count);
+				}
 			}
-			else
+			for (int i = 0; i < ALGORITHMS; i++)
 			{
-				return 'S';
+				out.writeDouble(hitRate(i));
 			}
 		}
-		else if (pPaper > pScissors)
+		finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Uses Naive Bayes to generate a prediction for the player's next move
+	 * @param  player	- current history of player's moves
+	 * @param  computer	- current history of computer's moves
+	 * @return character ('R', 'P', or 'S') representing the predicted player's move
+	 */
+	public char naiveBayes(String player, String computer)
+	{
+		return naiveBayes(GameState.of(moves, player, computer));
+	}
+
+	/**
+	 * Uses Naive Bayes to generate a prediction for the player's next move
+	 * @param  state	- current (rolling) game state
+	 * @return character ('R', 'P', or 'S') representing the predicted player's move
+	 */
+	public char naiveBayes(GameState state)
+	{
+		return moves.symbol(naiveBayesMove(state));
+	}
+
+	/**
+	 * Naive Bayes prediction as a move index
+	 */
+	private int naiveBayesMove(GameState state)
+	{
+		int k = moves.size();
+		int[] playerCounts = playerMarginal.get(state.playerHistory(state.length()));
+		int[] computerCounts = computerMarginal.get(state.computerHistory(state.length()));
+		if (playerCounts == null)
+		{
+			playerCounts = new int[k];
+		}
+		if (computerCounts == null)
 		{
-			return 'P';
+			computerCounts = new int[k];
 		}
-		else
+		
+		// P(Y|X)=P(X1|Y)*P(X2|Y)*P(Y); return the move with the highest (later moves win ties)
+		double[] prior = PY;
+		int prediction = 0;
+		double best = -1;
+		for (int move = 0; move < k; move++)
 		{
-			return 'S';
+			double p = ((double)playerCounts[move]/numMoves[move]) * ((double)computerCounts[move]/numMoves[move]) * prior[move];
+			if (p >= best)
+			{
+				best = p;
+				prediction = move;
+			}
 		}
+		return prediction;
 	}
 	
 	/**
-	 * Generates all valid moves that the computer can make at the current (given) state
-	 * @param player	- given history of player
-	 * @param partialHistory	- current partial history
-	 * @param charsLeft	- represents the number of characters (moves) that can still be added
-	 * @param playerCounts	- reference to 3-tuple (R, P, and S counts) for player's state
-	 * @param computerCounts	- reference to 3-tuple (R, P, and S counts) for computer's state
+	 * Indexes data for prediction: builds the suffix tree, and sums the counts of every state
+	 * over all opponent histories for Naive Bayes, which would otherwise enumerate all 3^n
+	 * opponent histories on each prediction. Must be rerun whenever states are added to data
 	 */
-	public void generateComputerCombinations(String player, String partialHistory, int charsLeft, int[] playerCounts, int[] computerCounts)
+	void buildIndex()
 	{
-		if (charsLeft == 0)
+		index = quantizedIndex ? new QuantizedModel(data, moves) : new ContextTree(data, moves);
+		playerMarginal = new HashMap<String, int[]>();
+		computerMarginal = new HashMap<String, int[]>();
+		for (Map.Entry<String, int[]> entry : data.entrySet())
 		{
-			String key = player + partialHistory;
-			int[] result = data.get(key);
-			if (result != null)
-			{
-				playerCounts[0] += result[0];
-				playerCounts[1] += result[1];
-				playerCounts[2] += result[2];
-			}
-
-			return;
+			String key = entry.getKey();
+			addTo(playerMarginal, key.substring(0, key.length()/2), entry.getValue());
+			addTo(computerMarginal, key.substring(key.length()/2), entry.getValue());
 		}
-
-		generateComputerCombinations(player, partialHistory.concat("R"), charsLeft-1, playerCounts, computerCounts);
-		generateComputerCombinations(player, partialHistory.concat("P"), charsLeft-1, playerCounts, computerCounts);
-		generateComputerCombinations(player, partialHistory.concat("S"), charsLeft-1, playerCounts, computerCounts);
 	}
-	
+
 	/**
-	 * Generates all valid moves that the player can make at the current (given) state
-	 * @param player	- given history of player
-	 * @param partialHistory	- current partial history
-	 * @param charsLeft	- represents the number of characters (moves) that can still be added
-	 * @param playerCounts	- reference to 3-tuple (R, P, and S counts) for player's state
-	 * @param computerCounts	- reference to 3-tuple (R, P, and S counts) for computer's state
+	 * Folds newly observed moves of one game state into the counts in place, scaled like the
+	 * training data, so that the exact suffix index and Naive Bayes see them without a rebuild
+	 * (a quantized index keeps its copy until the next rebuild). Predictions may run concurrently,
+	 * but only one thread may update the counts; call updatePrior() after a batch of updates
+	 * @param  key	- data table key of the game state
+	 * @param  delta	- number of new observations of each move
+	 * @return false if the state is not in the data, in which case nothing changes until a rebuild
 	 */
-	public void generatePlayerCombinations(String partialHistory, String computer, int charsLeft, int[] playerCounts, int[] computerCounts)
+	boolean addCounts(String key, long[] delta)
 	{
-		if (charsLeft == 0)
+		int[] counts = data.get(key);
+		if (counts == null)
 		{
-			String key = partialHistory + computer;
-			int[] result = data.get(key);
-			if (result != null)
-			{
-				computerCounts[0] += result[0];
-				computerCounts[1] += result[1];
-				computerCounts[2] += result[2];
-			}
+			return false;
+		}
 
-			return;
+		int[] player = playerMarginal.get(key.substring(0, key.length()/2));
+		int[] computer = computerMarginal.get(key.substring(key.length()/2));
+		for (int move = 0; move < counts.length; move++)
+		{
+			int added = (int)delta[move] * ADDITIVE_SMOOTHING_FACTOR;
+			counts[move] += added;
+			player[move] += added;
+			computer[move] += added;
+			numMoves[move] += added;
 		}
+		return true;
+	}
 
-		generatePlayerCombinations(partialHistory.concat("R"), computer, charsLeft-1, playerCounts, computerCounts);
-		generatePlayerCombinations(partialHistory.concat("P"), computer, charsLeft-1, playerCounts, computerCounts);
-		generatePlayerCombinations(partialHistory.concat("S"), computer, charsLeft-1, playerCounts, computerCounts);
+	private static void addTo(HashMap<String, int[]> marginal, String history, int[] state)
+	{
+		int[] counts = marginal.get(history);
+		if (counts == null)
+		{
+			counts = new int[state.length];
+			marginal.put(history, counts);
+		}
+		for (int move = 0; move < state.length; move++)
+		{
+			counts[move] += state[move];
+		}
 	}
 	
 	/**
@@ -237,36 +540,22 @@ public class PredictionEngine
 	 */
 	public char fullBayes(String player, String computer)
 	{
-		String key = player + computer;
-		int[] result = data.get(key);
-		
-		// If point not in dataset, predict on the prior
-		if (result == null)
-		{
-			result = new int[3];
-			result[0] = (int)(100*PY[0]);
-			result[1] = (int)(100*PY[1]);
-			result[2] = (int)(100*PY[2]);
-		}
-		
-		// Choose prediction over a probability distribution (to increase variability)
-		char prediction;
-		double rand = Math.random();
-		double total = result[0] + result[1] + result[2];
-		if (rand < result[0] / total)
-		{
-			prediction = 'R';
-		}
-		else if (rand < (result[0] + result[1]) / total)
-		{
-			prediction = 'P';
-		}
-		else
-		{
-			prediction = 'S';
-		}
+		return fullBayes(GameState.of(moves, player, computer));
+	}
+
+	/**
+	 * Uses "Full Bayes" (no conditional independence assumption) to generate a 
+	 * prediction for the player's next move
+	 * @param  state	- current (rolling) game state
+	 * @return character ('R', 'P', or 'S') representing the predicted player's move
+	 */
+	public char fullBayes(GameState state)
+	{
+		ContextIndex.Lookup lookup = index.lookup(state);
 		
-		return prediction;
+		// If point not in dataset, predict on the prior; otherwise choose prediction
+		// over a probability distribution (to increase variability)
+		return moves.symbol(sample(lookup.hasExact ? lookup.exact : PY));
 	}
 	
 	/**
@@ -278,36 +567,73 @@ public class PredictionEngine
 	 */
 	public char adaptedNN(String player, String computer)
 	{
-		String key = player + computer;
-		int[] result = data.get(key);
-		
-		// If point not in dataset, find subgame history result
-		while (result == null)
-		{
-			player = player.substring(1);
-			computer = computer.substring(1);
-			key = player + computer;
-			result = data.get(key);
-		}
+		return adaptedNN(GameState.of(moves, player, computer));
+	}
+
+	/**
+	 * Uses "Adapted Nearest Neighbor" (essentially combining Full Bayes with a subgame
+	 * history search) to generate a prediction for the player's next move
+	 * @param  state	- current (rolling) game state
+	 * @return character ('R', 'P', or 'S') representing the predicted player's move
+	 */
+	public char adaptedNN(GameState state)
+	{
+		// The index walk finds the longest subgame history in the dataset (down to the empty game)
+		ContextIndex.Lookup lookup = index.lookup(state);
 		
 		// Choose prediction over a probability distribution
-		char prediction;
-		double rand = Math.random();
-		double total = result[0] + result[1] + result[2];
-		if (rand < result[0] / total)
-		{
-			prediction = 'R';
-		}
-		else if (rand < (result[0] + result[1]) / total)
+		return moves.symbol(sample(lookup.hasDeepest ? lookup.deepest : PY));
+	}
+
+	/**
+	 * Uses "Context Mixture" (blending the counts of every sub-game history length, from the
+	 * empty game up to the full state, weighted by length and sample size) to generate a
+	 * prediction for the player's next move
+	 * @param  state	- current (rolling) game state
+	 * @return character ('R', 'P', or 'S') representing the predicted player's move
+	 */
+	public char contextMixture(GameState state)
+	{
+		return moves.symbol(index.lookup(state).mixtureMove());
+	}
+
+	/**
+	 * Draws a move from the distribution given by per-move weights (counts or probabilities)
+	 * @param  counts	- weight of each move
+	 * @return index of the move drawn
+	 */
+	private int sample(double[] counts)
+	{
+		double total = 0;
+		for (double count : counts)
 		{
-			prediction = 'P';
+			total += count;
 		}
-		else
+
+		double rand = Math.random() * total;
+		int last = counts.length - 1;
+		for (int move = 0; move < last; move++)
 		{
-			prediction = 'S';
+			rand -= counts[move];
+			if (rand < 0)
+			{
+				return move;
+			}
 		}
-		
-		return prediction;
+		return last;
+	}
+
+	/**
+	 * Switches between the exact suffix tree and the compact quantized model for the
+	 * Full Bayes, Adapted Nearest Neighbor, and Context Mixture lookups on the hot path
+	 * @param  quantized	- whether to use the quantized model
+	 */
+	public void useQuantizedIndex(boolean quantized)
+	{
+		// build the new index before publishing it, so concurrent predictions keep using the old one until then
+		ContextIndex next = quantized ? new QuantizedModel(data, moves) : new ContextTree(data, moves);
+		index = next;
+		quantizedIndex = quantized;
 	}
 
 	/**
@@ -318,63 +644,201 @@ public class PredictionEngine
 	 * @return the character ('R', 'P', 'S') representing the suggested computer move
 	 */
 	public char determineOptimalMove(String player, String computer) {
-		double R, P, S;
-		R = P = S = 0;
+		return determineOptimalMove(GameState.of(moves, player, computer));
+	}
 
-		char nbPrediction, fbPrediction, annPrediction;
+	/**
+	 * Uses the combination of Naive Bayes, Full Bayes, Adapted Nearest Neighbor, and Context
+	 * Mixture in an ensemble-vote style to predict the player's next move from the current game
+	 * state. The last three all come from a single walk of the suffix index
+	 * @param  state	- current (rolling) game state
+	 * @return the character ('R', 'P', 'S') representing the suggested computer move
+	 */
+	public char determineOptimalMove(GameState state) {
+		return moves.symbol(predict(state, new int[ALGORITHMS]));
+	}
 
-		// get the Naive Bayes predicted move, increase the weight for corresponding computer move
-		nbPrediction = chooseMove(naiveBayes(player, computer));
-		if (nbPrediction == 'R') {
-			R += NB_WEIGHT;
-		}
-		else if (nbPrediction == 'P') {
-			P += NB_WEIGHT;
+	/**
+	 * Same as {@link #determineOptimalMove(String, String)}, but once the computer move has been chosen
+	 * the player's actual move is fed back into the live hit rates, so the ensemble weights follow the
+	 * current player population
+	 * @param  player	- history of player moves
+	 * @param  computer	- history of computer moves
+	 * @param  playerMove	- the move the player actually made at this state
+	 * @return the character ('R', 'P', 'S') representing the suggested computer move
+	 */
+	public char determineOptimalMove(String player, String computer, char playerMove) {
+		return determineOptimalMove(GameState.of(moves, player, computer), playerMove);
+	}
+
+	/**
+	 * Same as {@link #determineOptimalMove(GameState)}, but once the computer move has been chosen
+	 * the player's actual move is fed back into the live hit rates
+	 * @param  state	- current (rolling) game state
+	 * @param  playerMove	- the move the player actually made at this state
+	 * @return the character ('R', 'P', 'S') representing the suggested computer move
+	 */
+	public char determineOptimalMove(GameState state, char playerMove) {
+		int[] predictions = new int[ALGORITHMS];
+		int compMove = predict(state, predictions);
+
+		int actual = moves.index(playerMove);
+		if (actual < 0)
+		{
+			return moves.symbol(compMove);
 		}
-		else {
-			S += NB_WEIGHT;
+
+		// a hit is a prediction whose counter move beats the actual move, the same measure the
+		// calibration seeds the rates with (with more than 3 moves, a counter beats more than one move)
+		int[] tally = hitTallies.get();
+		for (int i = 0; i < ALGORITHMS; i++)
+		{
+			if (moves.winner(actual, moves.counter(predictions[i])) == 'C')
+			{
+				tally[i]++;
+			}
 		}
-		
-		// get the Full Bayes predicted move, increase the weight for corresponding computer move
-		fbPrediction = chooseMove(fullBayes(player, computer));
-		if (fbPrediction == 'R') {
-			R += FB_WEIGHT;
+		if (++tally[ALGORITHMS] == FOLD_EVERY)
+		{
+			foldHitRates(tally);
 		}
-		else if (fbPrediction == 'P') {
-			P += FB_WEIGHT;
+
+		return moves.symbol(compMove);
+	}
+
+	/**
+	 * Runs every algorithm on a state, sharing one walk of the suffix index between Full Bayes,
+	 * Adapted Nearest Neighbor, and Context Mixture, and votes on their predictions
+	 * @param  state	- current (rolling) game state
+	 * @param  predictions	- filled with the indices of the player moves predicted by Naive Bayes,
+	 * Full Bayes, Adapted Nearest Neighbor, and Context Mixture
+	 * @return index of the suggested computer move
+	 */
+	private int predict(GameState state, int[] predictions) {
+		EngineEvents.Prediction event = new EngineEvents.Prediction();
+		event.begin();
+
+		ContextIndex.Lookup lookup = index.lookup(state);
+		predictions[0] = naiveBayesMove(state);
+		predictions[1] = sample(lookup.hasExact ? lookup.exact : PY);
+		predictions[2] = sample(lookup.hasDeepest ? lookup.deepest : PY);
+		predictions[3] = lookup.mixtureMove();
+		int compMove = vote(predictions);
+
+		if (event.shouldCommit())
+		{
+			event.historyLength = state.length();
+			event.backoffDepth = state.length() - lookup.deepestLength;
+			event.exactHit = lookup.hasExact;
+			event.quantized = quantizedIndex;
+			event.compMove = moves.symbol(compMove);
+			event.commit();
 		}
-		else {
-			S += FB_WEIGHT;
+		return compMove;
+	}
+
+	/**
+	 * Weighs the algorithms' predictions by their live hit rates
+	 * @param  predictions	- indices of the player moves predicted by Naive Bayes, Full Bayes,
+	 * Adapted Nearest Neighbor, and Context Mixture
+	 * @return index of the suggested computer move
+	 */
+	private int vote(int[] predictions) {
+		double[] tally = new double[moves.size()];
+
+		// the weights only need to be relative to one another, so the rates are used without normalizing
+		// for each predicted move, increase the weight for corresponding computer move
+		for (int i = 0; i < predictions.length; i++)
+		{
+			tally[moves.counter(predictions[i])] += hitRate(i);
 		}
 		
-		// get the Adapted Nearest Neighbor predicted move, increase the weight for corresponding computer move
-		annPrediction = chooseMove(adaptedNN(player, computer));
-		if (annPrediction == 'R') {
-			R += ANN_WEIGHT;
-		}
-		else if (annPrediction == 'P') {
-			P += ANN_WEIGHT;
+		// return optimal weighted computer move (later moves win ties)
+		int best = 0;
+		for (int move = 1; move < tally.length; move++)
+		{
+			if (tally[move] >= tally[best])
+			{
+				best = move;
+			}
 		}
-		else {
-			S += ANN_WEIGHT;
+		return best;
+	}
+
+	/**
+	 * Folds a thread's tally of FOLD_EVERY moves into the exponentially decayed hit rates, as if
+	 * each move had been folded in on its own. Lock-free, and since each thread only folds once
+	 * every FOLD_EVERY moves, concurrent games rarely contend on the shared rates
+	 * @param  tally	- hits of each algorithm, then the number of moves; reset to zero
+	 */
+	private void foldHitRates(int[] tally)
+	{
+		for (int i = 0; i < ALGORITHMS; i++)
+		{
+			double observed = (double)tally[i] / tally[ALGORITHMS];
+			int slot = i * RATE_STRIDE;
+			long prev, next;
+			do {
+				prev = hitRates.get(slot);
+				double r = Double.longBitsToDouble(prev);
+				next = Double.doubleToRawLongBits(r + FOLD_DECAY * (observed - r));
+			} while (!hitRates.compareAndSet(slot, prev, next));
+			tally[i] = 0;
 		}
-		
-		// return optimal weighted computer move
-		if (R > P)
+		tally[ALGORITHMS] = 0;
+	}
+
+	/**
+	 * @param  algorithm	- 0-3: Naive Bayes, Full Bayes, Adapted Nearest Neighbor, or Context Mixture
+	 * @return the algorithm's live hit rate
+	 */
+	double hitRate(int algorithm)
+	{
+		return Double.longBitsToDouble(hitRates.get(algorithm * RATE_STRIDE));
+	}
+
+	/**
+	 * Carries the live hit rates over from another engine, e.g. the one a rebuild replaces, so
+	 * that what was learned online outlives the retrain; tallies not yet folded are left behind
+	 * @param  from	- engine whose hit rates to copy
+	 */
+	void copyHitRates(PredictionEngine from)
+	{
+		for (int i = 0; i < ALGORITHMS; i++)
 		{
-			if (R > S)
-				return 'R';
-			else
-				return 'S';
+			hitRates.set(i * RATE_STRIDE, Double.doubleToRawLongBits(from.hitRate(i)));
 		}
-		else if (P > S)
+	}
+
+	/**
+	 * Seeds the live hit rates (the vote-weights) from measured hit rates
+	 */
+	private void setWeights(double nb_percent, double fb_percent, double ann_percent, double mix_percent)
+	{
+		hitRates.set(0, Double.doubleToRawLongBits(nb_percent));
+		hitRates.set(RATE_STRIDE, Double.doubleToRawLongBits(fb_percent));
+		hitRates.set(2 * RATE_STRIDE, Double.doubleToRawLongBits(ann_percent));
+		hitRates.set(3 * RATE_STRIDE, Double.doubleToRawLongBits(mix_percent));
+	}
+
+	/**
+	 * Current ensemble vote-weights, normalized from the live hit rates
+	 * @return 4-tuple of weights for Naive Bayes, Full Bayes, Adapted Nearest Neighbor, and Context Mixture
+	 */
+	public double[] currentWeights()
+	{
+		double[] weights = new double[ALGORITHMS];
+		double total = 0;
+		for (int i = 0; i < ALGORITHMS; i++)
 		{
-			return 'P';
+			weights[i] = hitRate(i);
+			total += weights[i];
 		}
-		else
+		for (int i = 0; i < ALGORITHMS; i++)
 		{
-			return 'S';
+			weights[i] /= total;
 		}
+		return weights;
 	}
 
 	/**
@@ -384,12 +848,12 @@ public class PredictionEngine
 	 */
 	public char chooseMove(char prediction)
 	{
-		if (prediction == 'R')
-			return 'P';
-		else if (prediction == 'P')
-			return 'S';
-		else
-			return 'R';
+		int move = moves.index(prediction);
+		if (move < 0)
+		{
+			move = moves.size() - 1;
+		}
+		return moves.symbol(moves.counter(move));
 	}
 	
 	/**
@@ -401,33 +865,13 @@ public class PredictionEngine
 	 */
 	public char determineWinner(char playerMove, char compMove)
 	{
-		playerMove = Character.toUpperCase(playerMove);
-		compMove = Character.toUpperCase(compMove);
-		if (playerMove == compMove)
+		int player = moves.index(playerMove);
+		int computer = moves.index(compMove);
+		if (player < 0 || computer < 0)
 		{
 			return 'D';
 		}
-		else if (playerMove == 'R')
-		{
-			if (compMove == 'P')
-				return 'C';
-			else
-				return 'H';
-		}
-		else if (playerMove == 'P')
-		{
-			if (compMove == 'S')
-				return 'C';
-			else
-				return 'H';
-		}
-		else
-		{
-			if (compMove == 'R')
-				return 'C';
-			else
-				return 'H';
-		}
+		return moves.winner(player, computer);
 	}
 	
 
@@ -435,59 +879,30 @@ public class PredictionEngine
 	// Testing functions; generates vote-weights for the different algorithms
 	//================================================================================
 
-	public void expandInput()
-	{	
-		Scanner line = null;
-		try {
-			line = new Scanner(dataFile);
-		}
-		catch (IOException e) {
-			System.out.println("IOException has occured. Exiting.");
-			System.exit(1);
-		}
-
-		testPoints = new ArrayList<Datapoint>(44100);
-
-		// All terminal moves
-		while (line.hasNextLine() && line.hasNext())
-		{
-			String player = line.next();
-			String computer = line.next();
-				
-			int[] RPS = new int[3];
-			RPS[0] = line.nextInt()*ADDITIVE_SMOOTHING_FACTOR + ADDITIVE_SMOOTHING_CONST;
-			RPS[1] = line.nextInt()*ADDITIVE_SMOOTHING_FACTOR + ADDITIVE_SMOOTHING_CONST;
-			RPS[2] = line.nextInt()*ADDITIVE_SMOOTHING_FACTOR + ADDITIVE_SMOOTHING_CONST;
-			
-			for (int i = 0; i < RPS[0]; i++)
-			{
-				testPoints.add(new Datapoint(player, computer, 'R'));
-			}
-			
-			for (int i = 0; i < RPS[1]; i++)
-			{
-				testPoints.add(new Datapoint(player, computer, 'P'));
-			}
-			
-			for (int i = 0; i < RPS[2]; i++)
-			{
-				testPoints.add(new Datapoint(player, computer, 'S'));
-			}
-		}
-	}
-
 	public void testAll(double testPercentage)
 	{
-		expandInput();
+		EngineEvents.ModelPhase event = new EngineEvents.ModelPhase("holdout");
+		event.begin();
 		generateTestData(testPercentage);
+		event.states = testData.size();
+		event.commit();
+
+		event = new EngineEvents.ModelPhase("index");
+		event.begin();
+		buildIndex();
+		event.states = data.size();
+		event.commit();
 		
+		event = new EngineEvents.ModelPhase("calibrate");
+		event.begin();
 		double nb_percent = testNaiveBayes();
 		double fb_percent = testFullBayes();
 		double ann_percent = testAdaptedNN();
+		double mix_percent = testContextMixture();
 
-		NB_WEIGHT = nb_percent / (nb_percent + fb_percent + ann_percent);
-		FB_WEIGHT = fb_percent / (nb_percent + fb_percent + ann_percent);
-		ANN_WEIGHT = ann_percent / (nb_percent + fb_percent + ann_percent);
+		setWeights(nb_percent, fb_percent, ann_percent, mix_percent);
+		event.states = testData.size();
+		event.commit();
 	}
 
 	public double testNaiveBayes()
@@ -495,20 +910,28 @@ public class PredictionEngine
 		int win = 0;
 		int draw = 0;
 		int loss = 0;
-		for (Datapoint dp : testData)
+		for (Map.Entry<String, int[]> entry : testData.entrySet())
 		{
-			char prediction = naiveBayes(dp.player, dp.computer);
+			checkpoint();
+			String key = entry.getKey();
+			int[] samples = entry.getValue();
+
+			// Naive Bayes is deterministic, so one prediction covers every sample of the state
+			char prediction = naiveBayes(key.substring(0, key.length()/2), key.substring(key.length()/2));
 			char myMove = chooseMove(prediction);
 			
-			char result = determineWinner(dp.result, myMove);
-			if (result == 'C') {
-				win++;
-			}
-			else if (result == 'D') {
-				draw++;
-			}
-			else {
-				loss++;
+			for (int move = 0; move < moves.size(); move++)
+			{
+				char result = determineWinner(moves.symbol(move), myMove);
+				if (result == 'C') {
+					win += samples[move];
+				}
+				else if (result == 'D') {
+					draw += samples[move];
+				}
+				else {
+					loss += samples[move];
+				}
 			}
 		}
 		// System.out.println("Naive Bayes Test Results");
@@ -523,20 +946,32 @@ public class PredictionEngine
 		int win = 0;
 		int draw = 0;
 		int loss = 0;
-		for (Datapoint dp : testData)
+		for (Map.Entry<String, int[]> entry : testData.entrySet())
 		{
-			char prediction = fullBayes(dp.player, dp.computer);
-			char myMove = chooseMove(prediction);
-			
-			char result = determineWinner(dp.result, myMove);
-			if (result == 'C') {
-				win++;
-			}
-			else if (result == 'D') {
-				draw++;
-			}
-			else {
-				loss++;
+			checkpoint();
+			String key = entry.getKey();
+			String player = key.substring(0, key.length()/2);
+			String computer = key.substring(key.length()/2);
+			int[] samples = entry.getValue();
+
+			for (int move = 0; move < moves.size(); move++)
+			{
+				for (int i = 0; i < samples[move]; i++)
+				{
+					char prediction = fullBayes(player, computer);
+					char myMove = chooseMove(prediction);
+					
+					char result = determineWinner(moves.symbol(move), myMove);
+					if (result == 'C') {
+						win++;
+					}
+					else if (result == 'D') {
+						draw++;
+					}
+					else {
+						loss++;
+					}
+				}
 			}
 		}
 		// System.out.println("Full Bayes Test Results");
@@ -551,20 +986,32 @@ public class PredictionEngine
 		int win = 0;
 		int draw = 0;
 		int loss = 0;
-		for (Datapoint dp : testData)
+		for (Map.Entry<String, int[]> entry : testData.entrySet())
 		{
-			char prediction = adaptedNN(dp.player, dp.computer);
-			char compMove = chooseMove(prediction);
-			
-			char result = determineWinner(dp.result, compMove);
-			if (result == 'C') {
-				win++;
-			}
-			else if (result == 'D') {
-				draw++;
-			}
-			else {
-				loss++;
+			checkpoint();
+			String key = entry.getKey();
+			String player = key.substring(0, key.length()/2);
+			String computer = key.substring(key.length()/2);
+			int[] samples = entry.getValue();
+
+			for (int move = 0; move < moves.size(); move++)
+			{
+				for (int i = 0; i < samples[move]; i++)
+				{
+					char prediction = adaptedNN(player, computer);
+					char compMove = chooseMove(prediction);
+					
+					char result = determineWinner(moves.symbol(move), compMove);
+					if (result == 'C') {
+						win++;
+					}
+					else if (result == 'D') {
+						draw++;
+					}
+					else {
+						loss++;
+					}
+				}
 			}
 		}
 		// System.out.println("Adapted-NN Results");
@@ -574,65 +1021,116 @@ public class PredictionEngine
 		return (double)win/(win+draw+loss);
 	}
 	
-	public void generateTestData(double testPercentage)
+	public double testContextMixture()
 	{
-		int testSize = (int)(testPoints.size() * testPercentage);
-		testData = new ArrayList<Datapoint>(testSize);
-		
-		Collections.shuffle(testPoints);
-		
-		for (int i = 0; i < testSize; i++)
+		int win = 0;
+		int draw = 0;
+		int loss = 0;
+		for (Map.Entry<String, int[]> entry : testData.entrySet())
 		{
-			Datapoint dp = testPoints.get(i);
-			testData.add(dp);
+			checkpoint();
+			String key = entry.getKey();
+			int[] samples = entry.getValue();
+
+			// Context Mixture is deterministic, so one prediction covers every sample of the state
+			char prediction = contextMixture(GameState.of(moves, key.substring(0, key.length()/2), key.substring(key.length()/2)));
+			char myMove = chooseMove(prediction);
 			
-			String key = dp.player + dp.computer;
-			int[] RPS = data.remove(key);
-			if (dp.result == 'R')
+			for (int move = 0; move < moves.size(); move++)
 			{
-				RPS[0]--;
-				numRocks--;
+				char result = determineWinner(moves.symbol(move), myMove);
+				if (result == 'C') {
+					win += samples[move];
+				}
+				else if (result == 'D') {
+					draw += samples[move];
+				}
+				else {
+					loss += samples[move];
+				}
 			}
-			else if (dp.result == 'P')
-			{
-				RPS[1]--;
-				numPapers--;
-			}
-			else
-			{
-				RPS[2]--;
-				numScissors--;
-			}
-			data.put(key, RPS);
 		}
-		
-		double total = numRocks + numPapers + numScissors;
-		PY[0] = numRocks / total;
-		PY[1] = numPapers / total;
-		PY[2] = numScissors / total;
+		// System.out.println("Context Mixture Test Results");
+		// System.out.println("Wins: " + win + ", Draws: " + draw + " , Losses: " + loss);
+		// System.out.println("Win percent (-Draws): " + (double)win/(win+loss));
+		// System.out.println("Win percent (+Draws): " + (double)win/(win+draw+loss) + "\n");
+		return (double)win/(win+draw+loss);
 	}
 	
+	/**
+	 * Holds out a share of the (smoothed) samples for testing. Samples are drawn without replacement
+	 * straight from the count table, weighted by count, and subtracted from data in place, so memory
+	 * stays proportional to the number of game states rather than the number of samples
+	 * @param  testPercentage	- share of the samples to hold out
+	 */
+	public void generateTestData(double testPercentage)
+	{
+		String[] keys = data.keySet().toArray(new String[0]);
+		int[][] counts = new int[keys.length][];
+		for (int i = 0; i < keys.length; i++)
+		{
+			counts[i] = data.get(keys[i]);
+		}
 
-	//================================================================================
-	// Inner-classes
-	//================================================================================
+		// Fenwick tree over every (state, move) count, so that drawing a sample and
+		// removing it from the pool are both O(log n)
+		int k = moves.size();
+		int cells = keys.length * k;
+		int[] tree = new int[cells + 1];
+		for (int i = 1; i <= cells; i++)
+		{
+			tree[i] += counts[(i-1) / k][(i-1) % k];
+			int parent = i + (i & -i);
+			if (parent <= cells)
+			{
+				tree[parent] += tree[i];
+			}
+		}
 
-	public static class Datapoint
-	{
-		String player;
-		String computer;
-		char result;
-		
-		public Datapoint(String player, String computer, char result)
+		int remaining = 0;
+		for (int count : numMoves)
 		{
-			this.player = player;
-			this.computer = computer;
-			this.result = result;
+			remaining += count;
 		}
+		int testSize = (int)(remaining * testPercentage);
+		testData = new HashMap<String, int[]>();
+		Random random = new Random();
 		
-		public String toString()
+		for (int i = 0; i < testSize; i++)
 		{
-			return(player + " " + computer + " " + result);
+			checkpoint();
+			// find the cell holding the sample at a uniformly random position in the pool
+			int target = random.nextInt(remaining);
+			int cell = 0;
+			for (int step = Integer.highestOneBit(cells); step > 0; step >>= 1)
+			{
+				if (cell + step <= cells && tree[cell + step] <= target)
+				{
+					cell += step;
+					target -= tree[cell];
+				}
+			}
+
+			for (int j = cell + 1; j <= cells; j += j & -j)
+			{
+				tree[j]--;
+			}
+			remaining--;
+
+			int state = cell / k;
+			int move = cell % k;
+			counts[state][move]--;
+			numMoves[move]--;
+
+			int[] samples = testData.get(keys[state]);
+			if (samples == null)
+			{
+				samples = new int[k];
+				testData.put(keys[state], samples);
+			}
+			samples[move]++;
 		}
+		
+		updatePrior();
 	}
 }
@@ -0,0 +1,112 @@
+import java.util.*;
+
+/**
+ * Compares the exact suffix tree with the quantized model: prediction throughput, model
+ * bytes, and win rate on the engine's held-out calibration samples
+ */
+public class QuantizationBenchmark
+{
+	static final int STATES = 4096;	/** Distinct random game states cycled through when timing */
+
+	public static void main(String[] args)
+	{
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 5000000;
+
+		PredictionEngine engine = new PredictionEngine();
+		GameState[] states = randomStates(new Random(42));
+
+		System.out.println(String.format("data table: %d states, ~%d bytes", engine.data.size(), dataTableBytes(engine.data)));
+		System.out.println(String.format("%-10s %12s %16s %16s %14s %14s", "index", "bytes", "lookups/sec", "moves/sec", "mixture win", "ensemble win"));
+		report("exact", engine, false, states, iterations);
+		report("quantized", engine, true, states, iterations);
+	}
+
+	private static void report(String label, PredictionEngine engine, boolean quantized, GameState[] states, int iterations)
+	{
+		engine.useQuantizedIndex(quantized);
+
+		// warm up, then time the raw index walk and the whole ensemble
+		time(engine, states, iterations / 10, false);
+		double lookups = time(engine, states, iterations, false);
+		double moves = time(engine, states, iterations / 5, true);
+
+		System.out.println(String.format("%-10s %12d %16.0f %16.0f %14.4f %14.4f", label, engine.index.sizeInBytes(),
+				lookups, moves, engine.testContextMixture(), ensembleWinRate(engine)));
+	}
+
+	/**
+	 * @return operations per second over the given number of iterations
+	 */
+	private static double time(PredictionEngine engine, GameState[] states, int iterations, boolean ensemble)
+	{
+		int sink = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++)
+		{
+			GameState state = states[i & (STATES - 1)];
+			sink += ensemble ? engine.determineOptimalMove(state) : engine.index.lookup(state).mixtureMove();
+		}
+		long elapsed = System.nanoTime() - start;
+		if (sink == 42)
+		{
+			System.out.print("");
+		}
+		return iterations / (elapsed / 1e9);
+	}
+
+	/**
+	 * @return share of held-out samples the full ensemble beats
+	 */
+	private static double ensembleWinRate(PredictionEngine engine)
+	{
+		int win = 0;
+		int total = 0;
+		for (Map.Entry<String, int[]> entry : engine.testData.entrySet())
+		{
+			String key = entry.getKey();
+			GameState state = GameState.of(engine.moves, key.substring(0, key.length()/2), key.substring(key.length()/2));
+			int[] samples = entry.getValue();
+			for (int move = 0; move < engine.moves.size(); move++)
+			{
+				for (int i = 0; i < samples[move]; i++)
+				{
+					if (engine.determineWinner(engine.moves.symbol(move), engine.determineOptimalMove(state)) == 'C')
+					{
+						win++;
+					}
+					total++;
+				}
+			}
+		}
+		return (double)win / total;
+	}
+
+	private static GameState[] randomStates(Random random)
+	{
+		GameState[] states = new GameState[STATES];
+		for (int i = 0; i < STATES; i++)
+		{
+			states[i] = new GameState();
+			int length = random.nextInt(GameState.CAPACITY + 1);
+			for (int j = 0; j < length; j++)
+			{
+				states[i].push(MoveSet.RPS.symbol(random.nextInt(3)), MoveSet.RPS.symbol(random.nextInt(3)));
+			}
+		}
+		return states;
+	}
+
+	/**
+	 * Estimates the heap taken by the HashMap data table, assuming compressed references:
+	 * the bucket array, plus per entry a 32-byte node, the key String and its bytes, and an int[3]
+	 */
+	private static long dataTableBytes(HashMap<String, int[]> data)
+	{
+		long bytes = 16 + 4L * Integer.highestOneBit(data.size() * 4 / 3) * 2;
+		for (String key : data.keySet())
+		{
+			bytes += 32 + 24 + ((16 + key.length() + 7) / 8) * 8 + 32;
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,188 @@
+import java.util.*;
+
+/**
+ * Compact, cache-resident alternative to {@link ContextTree}: every game state is keyed by its
+ * base-k coded histories in an open-addressing int table, and its per-move counts are stored
+ * as 8-bit log-scaled values in one contiguous byte array. For the ~6k states of the RPS data
+ * the whole model is ~112KB, small enough to stay in L2, at the price of ~3% error per count.
+ *
+ * Unlike ContextTree this is a copy of the counts, so it must be rebuilt to see updates.
+ */
+public class QuantizedModel implements ContextIndex
+{
+	//================================================================================
+	// Fields
+	//================================================================================
+
+	static final int LOG_STEPS = 16;	/** Quantization steps per doubling of a count */
+	static final int EMPTY = -1;	/** Marks a free slot in the key table */
+
+	/** Count represented by each 8-bit value, 2^(q/LOG_STEPS) - 1 */
+	private static final double[] DECODE = new double[256];
+	static
+	{
+		for (int q = 0; q < 256; q++)
+		{
+			DECODE[q] = Math.pow(2, (double)q / LOG_STEPS) - 1;
+		}
+	}
+
+	private final MoveSet moves;	/** Move alphabet of the game */
+	private final int[] pow;	/** Powers of k, for taking the last moves of a coded history */
+	private final int bits;	/** Bits taken by one coded history in a state code */
+	private final int[] keys;	/** Open-addressing table of state codes */
+	private final byte[] counts;	/** Quantized per-move counts, k bytes per slot of keys */
+	private final int mask;
+
+
+	//================================================================================
+	// Constructors
+	//================================================================================
+
+	/**
+	 * Quantizes every game state of a data table
+	 * @param  data	- map from concatenated player and computer histories to per-move counts
+	 * @param  moves	- move alphabet of the game, of at most 6 moves
+	 * @throws IllegalArgumentException if state codes of the move set do not fit in an int
+	 */
+	public QuantizedModel(Map<String, int[]> data, MoveSet moves)
+	{
+		int k = moves.size();
+		this.moves = moves;
+		pow = new int[GameState.CAPACITY + 1];
+		pow[0] = 1;
+		for (int i = 1; i < pow.length; i++)
+		{
+			pow[i] = pow[i - 1] * k;
+		}
+		bits = 32 - Integer.numberOfLeadingZeros(moves.codeRange() - 1);
+		// a code packs 3 bits of length and two histories below the sign bit, so it is never EMPTY
+		if (2 * bits + 3 > 31)
+		{
+			throw new IllegalArgumentException("Quantized model supports at most 6 moves, not " + k);
+		}
+
+		// keep the load factor at or below 3/4 so probe runs stay short
+		int capacity = Integer.highestOneBit(Math.max(1, data.size() * 4 / 3)) * 2;
+		keys = new int[capacity];
+		counts = new byte[capacity * k];
+		mask = capacity - 1;
+		Arrays.fill(keys, EMPTY);
+
+		for (Map.Entry<String, int[]> entry : data.entrySet())
+		{
+			String key = entry.getKey();
+			int length = key.length() / 2;
+			int playerCode = 0;
+			int computerCode = 0;
+			if (!key.startsWith("0"))
+			{
+				for (int i = 0; i < length; i++)
+				{
+					playerCode = playerCode * k + moves.index(key.charAt(i));
+					computerCode = computerCode * k + moves.index(key.charAt(length + i));
+				}
+			}
+			else
+			{
+				length = 0;
+			}
+
+			int slot = slot(code(length, playerCode, computerCode));
+			int[] state = entry.getValue();
+			for (int move = 0; move < k; move++)
+			{
+				counts[slot * k + move] = quantize(state[move]);
+			}
+		}
+	}
+
+
+	//================================================================================
+	// Functions
+	//================================================================================
+
+	public Lookup lookup(GameState state)
+	{
+		int k = moves.size();
+		Lookup lookup = new Lookup(k);
+		int length = state.length();
+		int playerCode = state.playerCode();
+		int computerCode = state.computerCode();
+
+		for (int depth = 0; depth <= length; depth++)
+		{
+			int code = code(depth, playerCode % pow[depth], computerCode % pow[depth]);
+			int slot = find(code);
+			if (slot >= 0)
+			{
+				for (int move = 0; move < k; move++)
+				{
+					lookup.context[move] = DECODE[counts[slot * k + move] & 0xFF];
+				}
+				lookup.add(depth, length);
+			}
+		}
+
+		return lookup;
+	}
+
+	public long sizeInBytes()
+	{
+		return 16L + keys.length * 4L + 16L + counts.length;
+	}
+
+	/**
+	 * @return the state's code: its length and both coded histories packed into one int
+	 */
+	private int code(int length, int playerCode, int computerCode)
+	{
+		return (length << (2 * bits)) | (playerCode << bits) | computerCode;
+	}
+
+	/**
+	 * @return slot holding the code, or -1 if the state is not in the data
+	 */
+	private int find(int code)
+	{
+		for (int slot = hash(code) & mask; ; slot = (slot + 1) & mask)
+		{
+			if (keys[slot] == code)
+			{
+				return slot;
+			}
+			if (keys[slot] == EMPTY)
+			{
+				return -1;
+			}
+		}
+	}
+
+	/**
+	 * @return slot holding the code, claiming a free one if it is not in the table yet
+	 */
+	private int slot(int code)
+	{
+		int slot = hash(code) & mask;
+		while (keys[slot] != EMPTY && keys[slot] != code)
+		{
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = code;
+		return slot;
+	}
+
+	private static int hash(int code)
+	{
+		return code * 0x9E3779B1 >>> 16;
+	}
+
+	/**
+	 * @return 8-bit log-scaled representation of a count
+	 */
+	static byte quantize(int count)
+	{
+		long q = Math.round(LOG_STEPS * Math.log(1 + Math.max(0, count)) / Math.log(2));
+		return (byte)Math.min(255, q);
+	}
+}
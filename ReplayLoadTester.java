@@ -0,0 +1,136 @@
+import java.io.File;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replays a TrafficCapture against a Server at 1x-100x the captured speed. Arrivals are open
+ * loop: every request is sent at its scheduled time (its captured offset divided by the speed-up)
+ * whether or not earlier ones have been answered, and its latency runs from that scheduled time,
+ * so time spent queued behind a slow server (or behind the client's own concurrency limit) counts
+ * against the server instead of silently thinning the load.
+ */
+public class ReplayLoadTester
+{
+	static final long TIMEOUT_SECONDS = 30;	/** Requests unanswered after this long count as errors */
+
+	/**
+	 * Usage: java ReplayLoadTester capture-file [speed-up] [concurrency] [host:port]
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		if (args.length < 1)
+		{
+			System.err.println("Usage: java ReplayLoadTester capture-file [speed-up 1-100] [concurrency] [host:port]");
+			System.exit(1);
+		}
+		double speedUp = args.length > 1 ? Double.parseDouble(args[1]) : 1;
+		int concurrency = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+		String target = args.length > 3 ? args[3] : "localhost:3232";
+		if (speedUp < 1 || speedUp > 100)
+		{
+			System.err.println("Speed-up must be between 1 and 100");
+			System.exit(1);
+		}
+
+		List<TrafficCapture.Record> records = TrafficCapture.read(new File(args[0]));
+		if (records.isEmpty())
+		{
+			System.err.println("Capture holds no requests");
+			System.exit(1);
+		}
+		System.out.println(String.format("Replaying %d requests (%.1f s captured) at %.0fx with %d connections against %s",
+				records.size(), records.get(records.size() - 1).time / 1e6, speedUp, concurrency, target));
+
+		ExecutorService senders = Executors.newFixedThreadPool(concurrency, r -> {
+			Thread t = new Thread(r, "replay-sender");
+			t.setDaemon(true);
+			return t;
+		});
+		HttpClient client = HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_1_1)
+				.connectTimeout(Duration.ofSeconds(TIMEOUT_SECONDS))
+				.build();
+
+		long[] latencies = new long[records.size()];
+		AtomicLong errors = new AtomicLong();
+		CountDownLatch done = new CountDownLatch(records.size());
+
+		// schedule from this thread; the senders only ever wait on the server
+		long start = System.nanoTime();
+		for (int i = 0; i < records.size(); i++)
+		{
+			TrafficCapture.Record record = records.get(i);
+			long scheduled = start + (long)(record.time * 1000 / speedUp);
+			long wait = scheduled - System.nanoTime();
+			if (wait > 0)
+			{
+				TimeUnit.NANOSECONDS.sleep(wait);
+			}
+
+			int slot = i;
+			senders.execute(() -> {
+				try {
+					HttpResponse<String> response = client.send(request(target, record), HttpResponse.BodyHandlers.ofString());
+					if (response.statusCode() != 200)
+					{
+						errors.incrementAndGet();
+					}
+				}
+				catch (Exception e) {
+					errors.incrementAndGet();
+				}
+				latencies[slot] = System.nanoTime() - scheduled;
+				done.countDown();
+			});
+		}
+		done.await();
+		long elapsed = System.nanoTime() - start;
+		senders.shutdown();
+
+		report(latencies, errors.get(), elapsed);
+	}
+
+	private static HttpRequest request(String target, TrafficCapture.Record record)
+	{
+		String query = "user=" + encode(record.user) + "&computer=" + encode(record.computer) + "&move=" + encode(String.valueOf(record.move));
+		return HttpRequest.newBuilder(URI.create("http://" + target + "/play?" + query))
+				.timeout(Duration.ofSeconds(TIMEOUT_SECONDS))
+				.GET()
+				.build();
+	}
+
+	private static String encode(String value)
+	{
+		return URLEncoder.encode(value, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Prints throughput and the latency distribution
+	 */
+	private static void report(long[] latencies, long errors, long elapsedNanos)
+	{
+		Arrays.sort(latencies);
+		System.out.println(String.format("requests:   %d (%d errors)", latencies.length, errors));
+		System.out.println(String.format("throughput: %.1f requests/sec over %.2f s", latencies.length / (elapsedNanos / 1e9), elapsedNanos / 1e9));
+		System.out.println(String.format("latency:    p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, max %.2f ms",
+				percentile(latencies, 0.50), percentile(latencies, 0.90), percentile(latencies, 0.99),
+				percentile(latencies, 0.999), latencies[latencies.length - 1] / 1e6));
+	}
+
+	/**
+	 * @return the given quantile of sorted latencies, in milliseconds (nearest rank)
+	 */
+	private static double percentile(long[] sorted, double quantile)
+	{
+		int rank = (int)Math.ceil(quantile * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, rank))] / 1e6;
+	}
+}
@@ -0,0 +1,243 @@
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Rebuilds the model in the background and publishes it with one atomic reference swap, so
+ * live predictions never wait for train(), the held-out split, or the calibration. A rebuild
+ * starts once RETRAIN_MS has passed since the last one, or once a CountReplica has merged
+ * RETRAIN_MOVES new moves. The new engine is built from the data file plus the replica's
+ * merged counts on one minimum-priority thread, throttled through the engine's build
+ * checkpoints so that it uses at most CPU_SHARE of the machine's cores. Moves merged while it
+ * was building are applied to it on the replica's applier thread right before the swap, and
+ * the live hit rates the current engine has learned are carried over to it.
+ */
+public class RetrainScheduler
+{
+	//================================================================================
+	// Fields
+	//================================================================================
+
+	static final long RETRAIN_MS = Long.getLong("rps.retrainMs", 0);	/** Rebuild at least this often, 0 for never */
+	static final long RETRAIN_MOVES = Long.getLong("rps.retrainMoves", 0);	/** Rebuild after this many merged moves, 0 for never */
+	static final double CPU_SHARE = Double.parseDouble(System.getProperty("rps.retrainCpuShare", "0.25"));	/** Share of all cores a rebuild may use */
+	static final long CHECK_MS = 1000;	/** How often the triggers are checked */
+
+	private final AtomicReference<PredictionEngine> current;	/** Engine serving predictions */
+	private final File dataFile;
+	private final CountReplica replica;	/** Source of merged counts, or null */
+	private final long periodMs;
+	private final long moveThreshold;
+	private final CpuThrottle throttle;
+
+	private final ScheduledExecutorService builder = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "model-retrain");
+		t.setDaemon(true);
+		t.setPriority(Thread.MIN_PRIORITY);
+		return t;
+	});
+
+	private long lastBuild = System.currentTimeMillis();	/** Start of the last rebuild (builder thread only) */
+	private long movesAtLastBuild;	/** replica.mergedMoves at the start of the last rebuild (builder thread only) */
+
+	// metrics, readable from any thread
+	final AtomicLong builds = new AtomicLong();
+	final AtomicLong lastBuildMs = new AtomicLong();	/** Wall time of the last rebuild */
+	final AtomicLong lastBuildCpuMs = new AtomicLong();	/** CPU time of the last rebuild */
+
+
+	//================================================================================
+	// Constructors
+	//================================================================================
+
+	/**
+	 * Creates a scheduler using the rps.retrainMs, rps.retrainMoves and rps.retrainCpuShare settings
+	 * @param  current	- reference to the engine serving predictions, swapped on every rebuild
+	 * @param  dataFile	- handle to File with the data
+	 * @param  replica	- source of merged counts, or null
+	 */
+	public RetrainScheduler(AtomicReference<PredictionEngine> current, File dataFile, CountReplica replica)
+	{
+		this(current, dataFile, replica, RETRAIN_MS, RETRAIN_MOVES, CPU_SHARE);
+	}
+
+	/**
+	 * @param  current	- reference to the engine serving predictions, swapped on every rebuild
+	 * @param  dataFile	- handle to File with the data
+	 * @param  replica	- source of merged counts, or null
+	 * @param  periodMs	- rebuild at least this often, 0 for never
+	 * @param  moveThreshold	- rebuild after this many merged moves, 0 for never
+	 * @param  cpuShare	- share of all cores a rebuild may use
+	 */
+	public RetrainScheduler(AtomicReference<PredictionEngine> current, File dataFile, CountReplica replica,
+			long periodMs, long moveThreshold, double cpuShare)
+	{
+		this.current = current;
+		this.dataFile = dataFile;
+		this.replica = replica;
+		this.periodMs = periodMs;
+		this.moveThreshold = moveThreshold;
+		throttle = new CpuThrottle(cpuShare * Runtime.getRuntime().availableProcessors());
+	}
+
+
+	//================================================================================
+	// Functions
+	//================================================================================
+
+	/**
+	 * @return whether any trigger is configured
+	 */
+	public static boolean enabled()
+	{
+		return RETRAIN_MS > 0 || RETRAIN_MOVES > 0;
+	}
+
+	/**
+	 * Starts checking the triggers every CHECK_MS
+	 */
+	public void start()
+	{
+		builder.scheduleWithFixedDelay(this::check, CHECK_MS, CHECK_MS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return the retraining metrics, one "name value" pair per line
+	 */
+	public String metrics()
+	{
+		return "retrain_builds " + builds.get() + "\n"
+				+ "retrain_last_build_ms " + lastBuildMs.get() + "\n"
+				+ "retrain_last_build_cpu_ms " + lastBuildCpuMs.get() + "\n";
+	}
+
+	/**
+	 * Rebuilds if a trigger fired; runs on the builder thread
+	 */
+	private void check()
+	{
+		long merged = replica == null ? 0 : replica.mergedMoves.get();
+		boolean due = periodMs > 0 && System.currentTimeMillis() - lastBuild >= periodMs;
+		boolean volume = moveThreshold > 0 && merged - movesAtLastBuild >= moveThreshold;
+		if (!due && !volume)
+		{
+			return;
+		}
+
+		try {
+			rebuild();
+		}
+		catch (Exception e) {
+			// keep serving the current engine and try again at the next trigger
+			System.err.println("Model rebuild failed: " + e);
+		}
+	}
+
+	/**
+	 * Builds a new engine beside the current one and swaps it in
+	 */
+	private void rebuild() throws InterruptedException, ExecutionException
+	{
+		lastBuild = System.currentTimeMillis();
+		movesAtLastBuild = replica == null ? 0 : replica.mergedMoves.get();
+		long start = System.nanoTime();
+		throttle.reset();
+
+		PredictionEngine live = current.get();
+		Map<String, long[]> baseline = Collections.<String, long[]>emptyMap();
+		if (replica != null)
+		{
+			CompletableFuture<Map<String, long[]>> totals = new CompletableFuture<Map<String, long[]>>();
+			replica.execute(() -> totals.complete(replica.totals()));
+			baseline = totals.get();
+		}
+
+		PredictionEngine next = new PredictionEngine(dataFile, live.moves, baseline, throttle);
+		if (next.quantizedIndex != live.quantizedIndex)
+		{
+			next.useQuantizedIndex(live.quantizedIndex);
+		}
+
+		if (replica == null)
+		{
+			next.copyHitRates(current.get());
+			current.set(next);
+		}
+		else
+		{
+			// catch up on what was merged during the build, and swap before the next merge
+			Map<String, long[]> built = baseline;
+			CompletableFuture<Void> swapped = new CompletableFuture<Void>();
+			replica.execute(() -> {
+				replica.rebase(next, built);
+				next.copyHitRates(current.get());
+				current.set(next);
+				swapped.complete(null);
+			});
+			swapped.get();
+		}
+
+		builds.incrementAndGet();
+		lastBuildMs.set((System.nanoTime() - start) / 1000000);
+		lastBuildCpuMs.set(throttle.cpuNanos() / 1000000);
+	}
+
+
+	//================================================================================
+	// Inner-classes
+	//================================================================================
+
+	/**
+	 * Build checkpoint that sleeps whenever the building thread has used more CPU time than
+	 * its share of the wall time since the build started
+	 */
+	private static class CpuThrottle implements Runnable
+	{
+		static final int CHECK_EVERY = 256;	/** Checkpoints between CPU time reads */
+
+		private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		private final double cores;	/** Cores the build may use; a single thread never uses more than one */
+		private long wallStart;
+		private long cpuStart;
+		private int calls;
+
+		CpuThrottle(double cores)
+		{
+			this.cores = cores;
+		}
+
+		void reset()
+		{
+			wallStart = System.nanoTime();
+			cpuStart = threads.getCurrentThreadCpuTime();
+			calls = 0;
+		}
+
+		long cpuNanos()
+		{
+			return threads.getCurrentThreadCpuTime() - cpuStart;
+		}
+
+		public void run()
+		{
+			if (cores >= 1 || ++calls % CHECK_EVERY != 0)
+			{
+				return;
+			}
+
+			long ahead = (long)(cpuNanos() / cores) - (System.nanoTime() - wallStart);
+			if (ahead > 1000000)
+			{
+				try {
+					Thread.sleep(ahead / 1000000);
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+}
@@ -1,9 +1,12 @@
 
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
@@ -11,33 +14,121 @@ import com.sun.net.httpserver.HttpServer;
 
 public class Server{
 
+  // shared by every request so the online ensemble weights learn from all games;
+  // swapped whole when a RetrainScheduler rebuilds the model
+  private static final AtomicReference<PredictionEngine> current = new AtomicReference<PredictionEngine>();
+
+  // optional count replication between Server processes, see CountReplica
+  private static CountReplica replica;
+
+  // optional background rebuilds: -Drps.retrainMs=N and/or -Drps.retrainMoves=N, see RetrainScheduler
+  private static RetrainScheduler retrainer;
+
+  // opt-in traffic capture for ReplayLoadTester: -Drps.capture=FILE records every /play request
+  private static TrafficCapture capture;
+
+  // opt-in binary protocol endpoint on the same engine: -Drps.binaryPort=N, see BinaryServer
+  private static final int BINARY_PORT = Integer.getInteger("rps.binaryPort", -1);
+  private static final int BINARY_THREADS = Integer.getInteger("rps.binaryThreads", 1);
+
+  // opt-in slow-request log: -Drps.slowRequestMs=N logs every request taking N ms or more
+  private static final long SLOW_REQUEST_MS = Long.getLong("rps.slowRequestMs", -1);
+
+  // java Server [port [nodeId replicationPort peers]], e.g. java Server 3232 1 4001 4002,4003
   public static void main(String[] args) throws Exception {
-    HttpServer server = HttpServer.create(new InetSocketAddress(3232), 0);
+    PredictionEngine engine = new PredictionEngine();
+    current.set(engine);
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : 3232;
+    if (args.length > 2) {
+      replica = new CountReplica(engine, Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+          CountReplica.parsePeers(args.length > 3 ? args[3] : ""));
+      replica.start();
+    }
+    if (RetrainScheduler.enabled()) {
+      retrainer = new RetrainScheduler(current, new File(PredictionEngine.DATA), replica);
+      retrainer.start();
+    }
+    if (System.getProperty("rps.capture") != null) {
+      capture = new TrafficCapture(new File(System.getProperty("rps.capture")));
+    }
+    HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
     server.createContext("/play", new GetHandler());
+    server.createContext("/metrics", new MetricsHandler());
     server.setExecutor(null); // creates a default executor
     server.start();
     System.out.println("The server is running");
+    if (BINARY_PORT >= 0) {
+      new BinaryServer(current, replica, BINARY_THREADS).start(BINARY_PORT);
+    }
   }
 
   // http://localhost:8000/info
 
   static class GetHandler implements HttpHandler {
     public void handle(HttpExchange httpExchange) throws IOException {
+      long start = System.nanoTime();
+      PredictionEngine engine = current.get();
+      EngineEvents.Request event = new EngineEvents.Request();
+      event.begin();
+
       StringBuilder response = new StringBuilder();
-      Map <String,String> params = Server.queryToMap(httpExchange.getRequestURI().getQuery());
-      PredictionEngine engine = new PredictionEngine();
+      String query = httpExchange.getRequestURI().getQuery();
+      Map <String,String> params = Server.queryToMap(query);
       String playerHistory = params.get("user");
       String computerHistory = params.get("computer");
       String playerMove = params.get("move");
-      char compMove = engine.determineOptimalMove(playerHistory, computerHistory); 
+      if (capture != null) {
+        capture.record(playerHistory, computerHistory, playerMove);
+      }
+      GameState state;
+      try {
+        state = GameState.of(engine.moves, playerHistory, computerHistory);
+      } catch (IllegalArgumentException e) {
+        Server.writeResponse(httpExchange, 400, e.getMessage() + "\n");
+        return;
+      }
+      char compMove = engine.determineOptimalMove(state, playerMove.charAt(0));
       char winner = engine.determineWinner(playerMove.charAt(0), compMove);
+      if (replica != null) {
+        replica.record(state, playerMove.charAt(0));
+      }
       response.append( compMove + " " + winner);
       Server.writeResponse(httpExchange, response.toString());
+
+      if (event.shouldCommit()) {
+        event.user = playerHistory;
+        event.computer = computerHistory;
+        event.move = playerMove;
+        event.response = response.toString();
+        event.commit();
+      }
+
+      long elapsedMs = (System.nanoTime() - start) / 1000000;
+      if (SLOW_REQUEST_MS >= 0 && elapsedMs >= SLOW_REQUEST_MS) {
+        System.err.println("Slow /play request: " + elapsedMs + " ms"
+            + " query=" + query
+            + " window=[" + state + "] moves=" + state.moves()
+            + " response=" + response
+            + " quantized=" + engine.quantizedIndex
+            + " weights=" + Arrays.toString(engine.currentWeights()));
+      }
+    }
+  }
+
+  static class MetricsHandler implements HttpHandler {
+    public void handle(HttpExchange httpExchange) throws IOException {
+      String metrics = (replica == null ? "" : replica.metrics()) + (retrainer == null ? "" : retrainer.metrics())
+          + (capture == null ? "" : "capture_requests " + capture.captured.get() + "\ncapture_dropped " + capture.dropped.get() + "\n");
+      Server.writeResponse(httpExchange, metrics.isEmpty() ? "no metrics enabled\n" : metrics);
     }
   }
 
   public static void writeResponse(HttpExchange httpExchange, String response) throws IOException {
-    httpExchange.sendResponseHeaders(200, response.length());
+    writeResponse(httpExchange, 200, response);
+  }
+
+  public static void writeResponse(HttpExchange httpExchange, int status, String response) throws IOException {
+    httpExchange.sendResponseHeaders(status, response.length());
     OutputStream os = httpExchange.getResponseBody();
     os.write(response.getBytes());
     os.close();
@@ -0,0 +1,52 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Measures the wall-clock cost of a full Play launch (JVM start, engine load, one move)
+ * with and without the prebuilt model snapshot and application class-data-sharing archive
+ * produced by warmstart.sh
+ */
+public class StartupBenchmark
+{
+	public static void main(String[] args) throws Exception
+	{
+		int runs = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+
+		if (!new File(PredictionEngine.DEFAULT_SNAPSHOT).isFile() || !new File("app.jsa").isFile()
+				|| !new File("rps.jar").isFile())
+		{
+			System.out.println("Run warmstart.sh first to build the snapshot, rps.jar and app.jsa.");
+			return;
+		}
+
+		report("cold (train + calibrate)", runs, java, "-Drps.snapshot=none", "Play");
+		report("model snapshot", runs, java, "Play");
+		report("model snapshot + AppCDS", runs, java, "-XX:SharedArchiveFile=app.jsa", "-cp", "rps.jar", "Play");
+	}
+
+	/**
+	 * Launches the command the given number of times and prints the median and best wall time
+	 */
+	private static void report(String label, int runs, String... command) throws Exception
+	{
+		long[] times = new long[runs];
+		for (int i = 0; i < runs; i++)
+		{
+			long start = System.nanoTime();
+			Process p = new ProcessBuilder(command).redirectErrorStream(true).start();
+			OutputStream stdin = p.getOutputStream();
+			stdin.write("RRR PPP R\n".getBytes());
+			stdin.close();
+			InputStream stdout = p.getInputStream();
+			while (stdout.read() != -1)
+			{
+				// drain
+			}
+			p.waitFor();
+			times[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(times);
+		System.out.println(String.format("%-28s median %7.1f ms, best %7.1f ms", label, times[runs/2] / 1e6, times[0] / 1e6));
+	}
+}
@@ -0,0 +1,238 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records /play requests (arrival time, user history, computer history, move) to a compact
+ * binary file, for replaying production traffic with ReplayLoadTester. Request threads only
+ * enqueue; one writer thread encodes and writes, and when it falls behind requests are dropped
+ * from the capture (and counted) rather than slowed down.
+ *
+ * File: int magic "RPSC", long wall-clock start (ms), then per request an unsigned varint of
+ * the microseconds since the previous request, the user and computer histories (each an
+ * unsigned varint byte count followed by that many UTF-8 bytes, so histories of any length
+ * fit), and the move as one byte.
+ */
+public class TrafficCapture
+{
+	//================================================================================
+	// Fields
+	//================================================================================
+
+	static final int MAGIC = 0x52505343;	/** "RPSC", marks a capture file */
+	static final int QUEUE_SIZE = 65536;	/** Requests waiting for the writer before new ones are dropped */
+
+	private final BlockingQueue<Record> queue = new ArrayBlockingQueue<Record>(QUEUE_SIZE);
+	private final DataOutputStream out;
+	private long lastNanos = System.nanoTime();	/** Arrival of the last request written (writer thread only) */
+	private volatile boolean stopped;	/** Set once the writer has given up on the file */
+
+	final AtomicLong captured = new AtomicLong();
+	final AtomicLong dropped = new AtomicLong();
+
+
+	//================================================================================
+	// Constructors
+	//================================================================================
+
+	/**
+	 * Starts a capture, overwriting the file
+	 * @param  file	- handle to File to write the capture to
+	 */
+	public TrafficCapture(File file) throws IOException
+	{
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		out.writeInt(MAGIC);
+		out.writeLong(System.currentTimeMillis());
+
+		Thread writer = new Thread(this::drain, "traffic-capture");
+		writer.setDaemon(true);
+		writer.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(this::flush));
+	}
+
+
+	//================================================================================
+	// Functions
+	//================================================================================
+
+	/**
+	 * Queues one request for the capture file
+	 * @param  user	- player history as received
+	 * @param  computer	- computer history as received
+	 * @param  move	- player's move as received
+	 */
+	public void record(String user, String computer, String move)
+	{
+		Record record = new Record(System.nanoTime(), user == null ? "" : user, computer == null ? "" : computer,
+				move == null || move.isEmpty() ? '?' : move.charAt(0));
+		if (stopped || !queue.offer(record))
+		{
+			dropped.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Writes queued requests until the process exits, flushing whenever the queue runs dry
+	 */
+	private void drain()
+	{
+		try {
+			while (true)
+			{
+				Record record = queue.poll();
+				if (record == null)
+				{
+					flush();
+					record = queue.take();
+				}
+				write(record);
+			}
+		}
+		catch (InterruptedException e) {
+			flush();
+		}
+		catch (IOException e) {
+			// count everything from here on as dropped rather than letting it pile up unseen
+			stopped = true;
+			dropped.addAndGet(queue.size());
+			queue.clear();
+			System.err.println("Traffic capture stopped: " + e.getMessage());
+		}
+	}
+
+	private void write(Record record) throws IOException
+	{
+		long micros = Math.max(0, record.time - lastNanos) / 1000;
+		lastNanos = Math.max(lastNanos, record.time);
+		synchronized (out)
+		{
+			writeVarLong(out, micros);
+			writeString(out, record.user);
+			writeString(out, record.computer);
+			out.writeByte(record.move);
+		}
+		captured.incrementAndGet();
+	}
+
+	private void flush()
+	{
+		synchronized (out)
+		{
+			try {
+				out.flush();
+			}
+			catch (IOException e) {
+				// reported by the writer thread
+			}
+		}
+	}
+
+	/**
+	 * Reads a whole capture file
+	 * @param  file	- handle to File written by a TrafficCapture
+	 * @return the requests, with their times in microseconds since the first request
+	 */
+	public static List<Record> read(File file) throws IOException
+	{
+		List<Record> records = new ArrayList<Record>();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		try {
+			if (in.readInt() != MAGIC)
+			{
+				throw new IOException("Not a traffic capture");
+			}
+			in.readLong();
+
+			long micros = -1;
+			while (true)
+			{
+				long delta;
+				try {
+					delta = readVarLong(in);
+				}
+				catch (EOFException e) {
+					break;
+				}
+				micros = micros < 0 ? 0 : micros + delta;
+				records.add(new Record(micros, readString(in), readString(in), (char)in.readUnsignedByte()));
+			}
+		}
+		catch (EOFException e) {
+			// a capture cut off mid-record (e.g. by a kill) keeps every complete record
+		}
+		finally {
+			in.close();
+		}
+		return records;
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException
+	{
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		writeVarLong(out, bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException
+	{
+		long length = readVarLong(in);
+		if (length > Integer.MAX_VALUE - 8)
+		{
+			throw new IOException("History of " + length + " bytes is too long");
+		}
+		byte[] bytes = new byte[(int)length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void writeVarLong(DataOutputStream out, long value) throws IOException
+	{
+		while ((value & ~0x7FL) != 0)
+		{
+			out.writeByte((int)(value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int)value);
+	}
+
+	private static long readVarLong(DataInputStream in) throws IOException
+	{
+		long value = 0;
+		for (int shift = 0; ; shift += 7)
+		{
+			int b = in.readUnsignedByte();
+			value |= (long)(b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+			{
+				return value;
+			}
+		}
+	}
+
+
+	//================================================================================
+	// Inner-classes
+	//================================================================================
+
+	/**
+	 * One captured /play request
+	 */
+	public static class Record
+	{
+		final long time;	/** Arrival: System.nanoTime() while capturing, microseconds since the first request once read */
+		final String user;
+		final String computer;
+		final char move;
+
+		Record(long time, String user, String computer, char move)
+		{
+			this.time = time;
+			this.user = user;
+			this.computer = computer;
+			this.move = move;
+		}
+	}
+}
@@ -1,14 +1,21 @@
 from __future__ import print_function
+import os
 import subprocess
 
+# use the jar and class-data-sharing archive built by warmstart.sh when they exist
+if os.path.exists("app.jsa") and os.path.exists("rps.jar"):
+    JAVA = ["java", "-XX:SharedArchiveFile=app.jsa", "-cp", "rps.jar"]
+else:
+    JAVA = ["java"]
+
 def read_main():
-    p = subprocess.Popen(["java", "Play"], stdout=subprocess.PIPE)
+    p = subprocess.Popen(JAVA + ["Play"], stdout=subprocess.PIPE)
     line = p.stdout.readline()
     while(line != "x\n"):
         print(line, end='')
         line = p.stdout.readline()
 def write_main():
-    p = subprocess.Popen(["java", "Play"], stdin=subprocess.PIPE, stdout=subprocess.PIPE, stderr=subprocess.PIPE)
+    p = subprocess.Popen(JAVA + ["Play"], stdin=subprocess.PIPE, stdout=subprocess.PIPE, stderr=subprocess.PIPE)
     line, err= p.communicate(input='RRR\nPPP\nR\n'.encode())
     print(line.decode())
     p.kill()
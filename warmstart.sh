@@ -0,0 +1,19 @@
+#!/bin/sh
+# Compiles the sources into rps.jar, writes a prebuilt model snapshot, so Play and GuiRunner
+# start without training the model, and records an application class-data-sharing archive of
+# the classes a Play run loads (GuiRunner's GUI classes are not in it). Rerun whenever the
+# sources or data/openings.txt change.
+set -e
+cd "$(dirname "$0")"
+
+javac *.java
+# the JVM only archives application classes loaded from jars, not from a class directory
+rm -f rps.jar
+jar cf rps.jar *.class
+java -cp rps.jar PredictionEngine data/model.snapshot
+
+# a representative Play run loads the engine classes; dump them into the archive at exit
+rm -f app.jsa
+echo "RRR PPP R" | java -XX:ArchiveClassesAtExit=app.jsa -cp rps.jar Play > /dev/null
+echo "Wrote app.jsa"
+echo "Launch with: java -XX:SharedArchiveFile=app.jsa -cp rps.jar Play"